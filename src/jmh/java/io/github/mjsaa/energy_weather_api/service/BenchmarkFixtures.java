@@ -0,0 +1,85 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import io.github.mjsaa.energy_weather_api.data.DayPriceTable;
+import io.github.mjsaa.energy_weather_api.data.ElectricityPrice;
+import io.github.mjsaa.energy_weather_api.data.Location;
+import io.github.mjsaa.energy_weather_api.data.Station;
+import io.github.mjsaa.energy_weather_api.data.StationResponse;
+import io.github.mjsaa.energy_weather_api.data.TimeSeries;
+import io.github.mjsaa.energy_weather_api.smhi.utils.SMHISeriesParser;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Upstream payloads the benchmarks run against, read from the classpath:
+ * <ul>
+ *     <li>{@code stations.json}: the station catalog bundled with the application</li>
+ *     <li>{@code fixtures/smhi-<parameter>-98210-latest-day.json}: latest-day series for
+ *     station 98210, hand-written in the SMHI upstream format</li>
+ *     <li>{@code fixtures/prices-<day>-SE3.json}: quarter-hourly SE3 prices of 2025-10-14 and
+ *     2025-10-15, hand-written in the price API's upstream format</li>
+ * </ul>
+ */
+final class BenchmarkFixtures {
+    static final String POST_CODE = "11120";
+    static final String ZONE = "3";
+    static final Location STOCKHOLM = new Location(59.3326, 18.0649);
+    static final List<LocalDate> DAYS = List.of(LocalDate.of(2025, 10, 14), LocalDate.of(2025, 10, 15));
+    static final JsonCodec JSON_CODEC = new JsonCodec(JsonMapper.builder().findAndAddModules().build());
+
+    private BenchmarkFixtures() {
+    }
+
+    static byte[] bytes(String resource) {
+        try (InputStream in = BenchmarkFixtures.class.getResourceAsStream("/" + resource)) {
+            if (in == null) {
+                throw new FileNotFoundException(resource);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static byte[] seriesJson(String parameter) {
+        return bytes("fixtures/smhi-" + parameter + "-98210-latest-day.json");
+    }
+
+    static TimeSeries series(String parameter) throws IOException {
+        return SMHISeriesParser.parse(seriesJson(parameter));
+    }
+
+    static byte[] pricesJson(LocalDate day) {
+        return bytes("fixtures/prices-" + day + "-SE" + ZONE + ".json");
+    }
+
+    static DayPriceTable prices(LocalDate day) throws IOException {
+        List<ElectricityPrice> prices = JSON_CODEC.electricityPricesReader().readValue(pricesJson(day));
+        return DayPriceTable.of(prices);
+    }
+
+    static List<Station> stations() throws IOException {
+        StationResponse response = JSON_CODEC.stationResponseReader().readValue(bytes("stations.json"));
+        return response.stations();
+    }
+
+    /**
+     * Random points inside the bounding box of Sweden. Seeded, so every run queries the same
+     * points.
+     */
+    static Location[] locations(int count) {
+        Random random = new Random(42);
+        Location[] locations = new Location[count];
+        for (int i = 0; i < count; i++) {
+            locations[i] = new Location(55.3 + random.nextDouble() * 13.8, 11.1 + random.nextDouble() * 13.1);
+        }
+        return locations;
+    }
+}
@@ -0,0 +1,111 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.DayPriceTable;
+import io.github.mjsaa.energy_weather_api.data.Location;
+import io.github.mjsaa.energy_weather_api.data.Response;
+import io.github.mjsaa.energy_weather_api.data.TimeSeries;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.mjsaa.energy_weather_api.service.WeatherService.SMHI_CLOUDINESS_PARAMETER;
+import static io.github.mjsaa.energy_weather_api.service.WeatherService.SMHI_TEMP_PARAMETER;
+import static io.github.mjsaa.energy_weather_api.service.WeatherService.SMHI_WIND_PARAMETER;
+
+/**
+ * {@link CombinationService#combineData(String)} end to end with the upstream lookups
+ * answered from the fixtures, as with warm caches: fan-out, joining, price lookup, sun
+ * position, and writing the response as JSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CombinationBenchmark {
+    private final CombinationService combinationService = new CombinationService();
+
+    @Setup
+    public void setUp() throws IOException {
+        Map<String, TimeSeries> series = new HashMap<>();
+        for (String parameter : List.of(SMHI_TEMP_PARAMETER, SMHI_WIND_PARAMETER, SMHI_CLOUDINESS_PARAMETER)) {
+            series.put(parameter, BenchmarkFixtures.series(parameter));
+        }
+        Map<LocalDate, DayPriceTable> prices = new HashMap<>();
+        for (LocalDate day : BenchmarkFixtures.DAYS) {
+            prices.put(day, BenchmarkFixtures.prices(day));
+        }
+
+        DaylightCalculator daylightCalculator = new DaylightCalculator();
+        ReflectionTestUtils.setField(daylightCalculator, "maxEntries", 4096);
+        WeatherService weatherService = new WeatherService() {
+            @Override
+            public TimeSeries getSeries(String postCode, Location point, String SMHIParameter) {
+                return series.get(SMHIParameter);
+            }
+        };
+        weatherService.daylightCalculator = daylightCalculator;
+        ElectricityService electricityService = new ElectricityService() {
+            @Override
+            public String getElectricityArea(String postCode) {
+                return BenchmarkFixtures.ZONE;
+            }
+
+            @Override
+            public DayPriceTable getElectricityPrices(LocalDate day, String areaCode) throws IOException {
+                DayPriceTable table = prices.get(day);
+                if (table == null) {
+                    throw new FileNotFoundException("No fixture prices for " + day);
+                }
+                return table;
+            }
+
+            @Override
+            public List<LocalDate> latestDays() {
+                return BenchmarkFixtures.DAYS;
+            }
+        };
+        PostPositionService postPositionService = new PostPositionService() {
+            @Override
+            public Location getLocation(String postCode) {
+                return BenchmarkFixtures.STOCKHOLM;
+            }
+        };
+        PipelineMetrics pipelineMetrics = new PipelineMetrics();
+        pipelineMetrics.meterRegistry = new SimpleMeterRegistry();
+
+        combinationService.weatherService = weatherService;
+        combinationService.electricityService = electricityService;
+        combinationService.postPositionService = postPositionService;
+        combinationService.pipelineMetrics = pipelineMetrics;
+    }
+
+    @Benchmark
+    public Response combineData() throws IOException {
+        return combinationService.combineData(BenchmarkFixtures.POST_CODE);
+    }
+
+    @Benchmark
+    public byte[] combineDataAsJson() throws IOException {
+        Response response = combinationService.combineData(BenchmarkFixtures.POST_CODE);
+        return BenchmarkFixtures.JSON_CODEC.objectMapper().writeValueAsBytes(response);
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.Location;
+import io.github.mjsaa.energy_weather_api.data.TimeSeries;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.mjsaa.energy_weather_api.service.WeatherService.SMHI_TEMP_PARAMETER;
+
+/**
+ * {@link DaylightCalculator#isSunUp(long, Location)} once the day is cached, which is the
+ * per-row cost of a response, and for locations that keep missing the cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DaylightBenchmark {
+    private final DaylightCalculator daylightCalculator = new DaylightCalculator();
+    private long[] timestamps;
+    private Location[] locations;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        // Fewer entries than locations, so every location in cacheMiss is computed again
+        ReflectionTestUtils.setField(daylightCalculator, "maxEntries", 256);
+        TimeSeries series = BenchmarkFixtures.series(SMHI_TEMP_PARAMETER);
+        timestamps = series.timestamps();
+        locations = BenchmarkFixtures.locations(1024);
+    }
+
+    @Benchmark
+    public boolean cacheHit() {
+        next = (next + 1) % timestamps.length;
+        return daylightCalculator.isSunUp(timestamps[next], BenchmarkFixtures.STOCKHOLM);
+    }
+
+    @Benchmark
+    public boolean cacheMiss() {
+        next = (next + 1) & (locations.length - 1);
+        return daylightCalculator.isSunUp(timestamps[0], locations[next]);
+    }
+}
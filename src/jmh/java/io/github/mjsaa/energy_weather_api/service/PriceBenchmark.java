@@ -0,0 +1,76 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.DayPriceTable;
+import io.github.mjsaa.energy_weather_api.data.ElectricityPrice;
+import io.github.mjsaa.energy_weather_api.data.TimeSeries;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.mjsaa.energy_weather_api.service.WeatherService.SMHI_TEMP_PARAMETER;
+
+/**
+ * Parsing a day of quarter-hourly prices as {@link ElectricityService} does on a cache miss,
+ * and looking up the price of every row of a response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PriceBenchmark {
+    private byte[] pricesJson;
+    private DayPriceTable table;
+    private PostCodeContext context;
+    private long[] timestamps;
+
+    @Setup
+    public void setUp() throws IOException {
+        LocalDate day = BenchmarkFixtures.DAYS.getFirst();
+        pricesJson = BenchmarkFixtures.pricesJson(day);
+        table = BenchmarkFixtures.prices(day);
+        // Both days are loaded up front, as in a request, so the lookup never fetches
+        context = new PostCodeContext(BenchmarkFixtures.POST_CODE, BenchmarkFixtures.STOCKHOLM,
+                BenchmarkFixtures.ZONE, null);
+        for (LocalDate latestDay : BenchmarkFixtures.DAYS) {
+            context.addPrices(latestDay, BenchmarkFixtures.prices(latestDay));
+        }
+        TimeSeries series = BenchmarkFixtures.series(SMHI_TEMP_PARAMETER);
+        timestamps = series.timestamps();
+    }
+
+    @Benchmark
+    public DayPriceTable parse() throws IOException {
+        List<ElectricityPrice> prices = BenchmarkFixtures.JSON_CODEC.electricityPricesReader().readValue(pricesJson);
+        return DayPriceTable.of(prices);
+    }
+
+    @Benchmark
+    public void priceAt(Blackhole blackhole) {
+        long start = table.intervalStarts()[0];
+        for (int hour = 0; hour < 24; hour++) {
+            blackhole.consume(table.priceAt(start + hour * 3_600_000L));
+        }
+    }
+
+    @Benchmark
+    public void contextLookup(Blackhole blackhole) throws IOException {
+        for (long timestamp : timestamps) {
+            blackhole.consume(context.getElectricityPrice(timestamp));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.TimeSeries;
+import io.github.mjsaa.energy_weather_api.data.WeatherColumns;
+import io.github.mjsaa.energy_weather_api.smhi.utils.SMHISeriesParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.mjsaa.energy_weather_api.service.WeatherService.SMHI_CLOUDINESS_PARAMETER;
+import static io.github.mjsaa.energy_weather_api.service.WeatherService.SMHI_TEMP_PARAMETER;
+import static io.github.mjsaa.energy_weather_api.service.WeatherService.SMHI_WIND_PARAMETER;
+
+/**
+ * Parsing the SMHI latest-day payloads, merging the three series onto one time axis and
+ * formatting the row timestamps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeriesBenchmark {
+    private byte[] temperatureJson;
+    private TimeSeries temperature;
+    private TimeSeries windSpeed;
+    private TimeSeries cloudiness;
+    private long hour;
+    private long notOnTheHour;
+
+    @Setup
+    public void setUp() throws IOException {
+        temperatureJson = BenchmarkFixtures.seriesJson(SMHI_TEMP_PARAMETER);
+        temperature = BenchmarkFixtures.series(SMHI_TEMP_PARAMETER);
+        windSpeed = BenchmarkFixtures.series(SMHI_WIND_PARAMETER);
+        cloudiness = BenchmarkFixtures.series(SMHI_CLOUDINESS_PARAMETER);
+        hour = temperature.timestamps()[0];
+        notOnTheHour = hour + 90_000;
+    }
+
+    @Benchmark
+    public TimeSeries parseLatestDay() throws IOException {
+        return SMHISeriesParser.parse(temperatureJson);
+    }
+
+    @Benchmark
+    public WeatherColumns join() {
+        return WeatherColumns.join(temperature, windSpeed, cloudiness);
+    }
+
+    /**
+     * Every row of a response; SMHI rows are on the hour, so these come from the formatted
+     * hours cache.
+     */
+    @Benchmark
+    public void convertToIsoWithOffsetHourly(Blackhole blackhole) {
+        long[] timestamps = temperature.timestamps();
+        for (long timestamp : timestamps) {
+            blackhole.consume(WeatherService.convertToIsoWithOffset(timestamp));
+        }
+    }
+
+    @Benchmark
+    public String convertToIsoWithOffsetUncached() {
+        return WeatherService.convertToIsoWithOffset(notOnTheHour);
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.Location;
+import io.github.mjsaa.energy_weather_api.data.Station;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nearest station lookups over the full SMHI catalog: the linear scan against the
+ * {@link StationIndex}, which every request does once per parameter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StationLookupBenchmark {
+    private final GeoClosestFinder geoClosestFinder = new GeoClosestFinder();
+    private List<Station> stations;
+    private StationIndex index;
+    private Location[] locations;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        stations = BenchmarkFixtures.stations();
+        index = StationIndex.of(stations);
+        locations = BenchmarkFixtures.locations(1024);
+    }
+
+    @Benchmark
+    public Station closestByScan() {
+        return geoClosestFinder.getClosest(nextLocation(), stations);
+    }
+
+    @Benchmark
+    public Station closestByIndex() {
+        return geoClosestFinder.getClosest(nextLocation(), index);
+    }
+
+    /**
+     * The candidate list the station fallback walks through.
+     */
+    @Benchmark
+    public List<Station> nearestEight() {
+        return geoClosestFinder.getClosest(nextLocation(), index, 8);
+    }
+
+    private Location nextLocation() {
+        next = (next + 1) & (locations.length - 1);
+        return locations[next];
+    }
+}
@@ -2,8 +2,10 @@ package io.github.mjsaa.energy_weather_api;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class EnergyWeatherApiApplication {
 
 	public static void main(String[] args) {
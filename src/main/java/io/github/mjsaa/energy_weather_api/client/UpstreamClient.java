@@ -0,0 +1,416 @@
+package io.github.mjsaa.energy_weather_api.client;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.stereotype.Service;
+
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Shared HTTP client for every upstream API (SMHI, Google geocoding, elpriset.nu and
+ * elprisetjustnu.se). Connections are pooled and reused, HTTP/2 is negotiated where the
+ * server supports it, responses are requested gzip-compressed and every host has its own
+ * read timeout. The read timeout bounds the wait for the response headers and, while the body
+ * is read, every wait for more of it. Bodies are returned as bytes so they can go straight
+ * into a parser.
+ * <p>
+ * Every host also has a limit on concurrent calls. Calls over the limit queue for a permit,
+ * so a burst of lookups is spread out instead of failing. Queueing is bounded by
+ * {@code upstream.queue.timeout}, which defaults to the async request timeout, so a queued
+ * call never outlives the request that made it.
+ * <p>
+ * {@link #get(String, Body)} revalidates a previously fetched body with its {@code ETag} and
+ * {@code Last-Modified} validators, so an unchanged resource is not downloaded again.
+ * <p>
+ * Every call is measured per provider (smhi, geocoder, zone, price): latency as
+ * {@code upstream.requests} by outcome, decompressed payload size as
+ * {@code upstream.payload} and calls in progress as {@code upstream.in.flight}.
+ */
+@Service
+public class UpstreamClient {
+    @Value("${upstream.connect.timeout}")
+    private Duration connectTimeout;
+    @Value("${upstream.read.timeout}")
+    private Duration defaultReadTimeout;
+    // host -> read timeout, e.g. {'maps.googleapis.com':'5s'}
+    @Value("#{${upstream.read.timeouts}}")
+    private Map<String, String> readTimeoutsByHost;
+
+    @Value("${upstream.max.concurrent}")
+    private int defaultMaxConcurrent;
+    // host -> concurrent call limit, e.g. {'maps.googleapis.com':'16'}
+    @Value("#{${upstream.max.concurrent.by.host}}")
+    private Map<String, String> maxConcurrentByHost;
+    @Value("${upstream.queue.timeout}")
+    private Duration queueTimeout;
+    // host -> provider tag for metrics, e.g. {'maps.googleapis.com':'geocoder'}
+    @Value("#{${upstream.providers}}")
+    private Map<String, String> providersByHost;
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private final Map<String, Duration> readTimeouts = new ConcurrentHashMap<>();
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    // Meters are registered on first use and then reused
+    private final Map<String, Timer> requestTimers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> payloads = new ConcurrentHashMap<>();
+    private HttpClient httpClient;
+    private final ScheduledExecutorService readTimeoutWatchdog = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("upstream-read-timeouts").daemon().factory());
+
+    /**
+     * A response body with the validators the server sent for it. Callers that keep only
+     * the parsed form may drop the bytes and keep the validators.
+     */
+    public record Body(byte[] bytes, String etag, String lastModified) {
+        public Body withoutBytes() {
+            return new Body(null, etag, lastModified);
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        readTimeoutsByHost.forEach((host, timeout) -> readTimeouts.put(host, DurationStyle.detectAndParse(timeout)));
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    @PreDestroy
+    void close() {
+        readTimeoutWatchdog.shutdownNow();
+    }
+
+    @FunctionalInterface
+    public interface BodyReader<T> {
+        T read(InputStream body) throws IOException;
+    }
+
+    /**
+     * @return the response body, decompressed
+     * @throws FileNotFoundException if the resource does not exist (404 or 410), like {@code URL.openStream}
+     */
+    public byte[] get(String url) throws IOException {
+        return get(url, null).bytes();
+    }
+
+    /**
+     * Conditional GET. Sends the validators of the previous body, if any, and returns the
+     * previous body itself when the server answers 304 Not Modified.
+     */
+    public Body get(String url, Body previous) throws IOException {
+        URI uri = toUri(url);
+        Semaphore hostPermits = permits.computeIfAbsent(uri.getHost(), this::newPermits);
+        acquire(hostPermits, uri.getHost());
+        String provider = provider(uri.getHost());
+        AtomicInteger active = inFlight(provider);
+        active.incrementAndGet();
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            Duration readTimeout = readTimeout(uri);
+            HttpResponse<InputStream> response = send(uri, previous, readTimeout);
+            outcome = outcome(response.statusCode());
+            try (InputStream raw = new TimedInputStream(response.body(), readTimeout, uri.getHost())) {
+                if (previous != null && response.statusCode() == 304) {
+                    return previous;
+                }
+                // Before decoding, since an empty error body is not valid gzip
+                checkStatus(uri, response.statusCode());
+                byte[] bytes;
+                try (InputStream body = decode(response, raw)) {
+                    bytes = body.readAllBytes();
+                }
+                payload(provider).record(bytes.length);
+                return new Body(bytes,
+                        response.headers().firstValue("ETag").orElse(null),
+                        response.headers().firstValue("Last-Modified").orElse(null));
+            }
+        } finally {
+            sample.stop(requests(provider, outcome));
+            active.decrementAndGet();
+            hostPermits.release();
+        }
+    }
+
+    /**
+     * Streams the decompressed response body into the reader, for payloads too large to hold
+     * in memory. The reader may stop early; the rest of the body is then discarded.
+     *
+     * @throws FileNotFoundException if the resource does not exist (404 or 410)
+     */
+    public <T> T stream(String url, BodyReader<T> reader) throws IOException {
+        URI uri = toUri(url);
+        Semaphore hostPermits = permits.computeIfAbsent(uri.getHost(), this::newPermits);
+        acquire(hostPermits, uri.getHost());
+        String provider = provider(uri.getHost());
+        AtomicInteger active = inFlight(provider);
+        active.incrementAndGet();
+        // Includes the reader's time, since the body is read while it is parsed
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            Duration readTimeout = readTimeout(uri);
+            HttpResponse<InputStream> response = send(uri, null, readTimeout);
+            outcome = outcome(response.statusCode());
+            try (InputStream raw = new TimedInputStream(response.body(), readTimeout, uri.getHost())) {
+                checkStatus(uri, response.statusCode());
+                CountingInputStream body = new CountingInputStream(decode(response, raw));
+                try (body) {
+                    return reader.read(body);
+                } finally {
+                    payload(provider).record(body.count);
+                }
+            }
+        } finally {
+            sample.stop(requests(provider, outcome));
+            active.decrementAndGet();
+            hostPermits.release();
+        }
+    }
+
+    private String provider(String host) {
+        return providersByHost.getOrDefault(host, host);
+    }
+
+    private AtomicInteger inFlight(String provider) {
+        return inFlight.computeIfAbsent(provider, key -> {
+            AtomicInteger active = new AtomicInteger();
+            Gauge.builder("upstream.in.flight", active, AtomicInteger::get)
+                    .tags("provider", key)
+                    .register(meterRegistry);
+            return active;
+        });
+    }
+
+    private Timer requests(String provider, String outcome) {
+        return requestTimers.computeIfAbsent(provider + "/" + outcome, key -> Timer.builder("upstream.requests")
+                .tags("provider", provider, "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    private DistributionSummary payload(String provider) {
+        return payloads.computeIfAbsent(provider, key -> DistributionSummary.builder("upstream.payload")
+                .baseUnit("bytes")
+                .tags("provider", provider)
+                .register(meterRegistry));
+    }
+
+    private static String outcome(int status) {
+        if (status == 304) {
+            return "not_modified";
+        }
+        if (status == 404 || status == 410) {
+            return "not_found";
+        }
+        if (status >= 500) {
+            return "server_error";
+        }
+        return status >= 400 ? "client_error" : "success";
+    }
+
+    private Semaphore newPermits(String host) {
+        String limit = maxConcurrentByHost.get(host);
+        return new Semaphore(limit != null ? Integer.parseInt(limit) : defaultMaxConcurrent);
+    }
+
+    private void acquire(Semaphore hostPermits, String host) throws IOException {
+        try {
+            if (!hostPermits.tryAcquire(queueTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out after " + queueTimeout + " waiting to call " + host);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to call " + host);
+        }
+    }
+
+    private static URI toUri(String url) throws MalformedURLException {
+        try {
+            return URI.create(url);
+        } catch (IllegalArgumentException e) {
+            // The message of the cause quotes the whole URL, API key included
+            throw new MalformedURLException(e.getCause() instanceof URISyntaxException syntax
+                    ? "Malformed upstream URL: " + syntax.getReason() + " at index " + syntax.getIndex()
+                    : "Malformed upstream URL");
+        }
+    }
+
+    private Duration readTimeout(URI uri) {
+        return readTimeouts.getOrDefault(uri.getHost(), defaultReadTimeout);
+    }
+
+    private HttpResponse<InputStream> send(URI uri, Body previous, Duration readTimeout) throws IOException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .timeout(readTimeout)
+                .header("Accept-Encoding", "gzip")
+                .GET();
+        if (previous != null && previous.etag() != null) {
+            request.header("If-None-Match", previous.etag());
+        }
+        if (previous != null && previous.lastModified() != null) {
+            request.header("If-Modified-Since", previous.lastModified());
+        }
+        try {
+            return httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while calling " + uri.getHost());
+        }
+    }
+
+    private static InputStream decode(HttpResponse<InputStream> response, InputStream body) throws IOException {
+        boolean gzip = response.headers()
+                .firstValue("Content-Encoding")
+                .map("gzip"::equalsIgnoreCase)
+                .orElse(false);
+        return gzip ? new GZIPInputStream(body) : body;
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Fails a body that delivers no data for the read timeout. {@code HttpRequest.timeout}
+     * only covers the response headers, so a watchdog closes the client's stream instead,
+     * which wakes up a pending read.
+     */
+    private final class TimedInputStream extends FilterInputStream {
+        private final long timeoutNanos;
+        private final String host;
+        private volatile long lastActivity = System.nanoTime();
+        private volatile boolean closed;
+        private volatile boolean timedOut;
+        private volatile ScheduledFuture<?> watchdog;
+
+        TimedInputStream(InputStream in, Duration timeout, String host) {
+            super(in);
+            this.timeoutNanos = timeout.toNanos();
+            this.host = host;
+            watch(timeoutNanos);
+        }
+
+        private void watch(long delayNanos) {
+            watchdog = readTimeoutWatchdog.schedule(this::check, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void check() {
+            if (closed) {
+                return;
+            }
+            long idle = System.nanoTime() - lastActivity;
+            if (idle < timeoutNanos) {
+                watch(timeoutNanos - idle);
+                return;
+            }
+            timedOut = true;
+            try {
+                in.close();
+            } catch (IOException e) {
+                // The pending read fails either way
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int b = super.read();
+                lastActivity = System.nanoTime();
+                return b;
+            } catch (IOException e) {
+                throw timedOut ? timeout() : e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                int read = super.read(buffer, offset, length);
+                lastActivity = System.nanoTime();
+                return read;
+            } catch (IOException e) {
+                throw timedOut ? timeout() : e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            watchdog.cancel(false);
+            super.close();
+        }
+
+        private HttpTimeoutException timeout() {
+            return new HttpTimeoutException("No data from " + host + " within " + Duration.ofNanos(timeoutNanos));
+        }
+    }
+
+    /**
+     * Messages name the host and path only, since the query of some calls carries an API key.
+     */
+    private static void checkStatus(URI uri, int status) throws IOException {
+        String resource = uri.getHost() + uri.getRawPath();
+        if (status == 404 || status == 410) {
+            throw new FileNotFoundException(resource);
+        }
+        if (status >= 400) {
+            throw new IOException("Server returned HTTP response code: " + status + " for " + resource);
+        }
+    }
+}
@@ -1,24 +1,204 @@
 package io.github.mjsaa.energy_weather_api.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import io.github.mjsaa.energy_weather_api.data.BatchEntry;
+import io.github.mjsaa.energy_weather_api.data.CombinedWeatherElectricityData;
 import io.github.mjsaa.energy_weather_api.data.Response;
+import io.github.mjsaa.energy_weather_api.data.VersionedResponse;
 import io.github.mjsaa.energy_weather_api.service.CombinationService;
+import io.github.mjsaa.energy_weather_api.service.JsonCodec;
+import io.github.mjsaa.energy_weather_api.service.ResponseSink;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ETag;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/energy-weather-data")
 public class EnergyWeatherController {
     @Autowired
     CombinationService combinationService;
+    @Autowired
+    JsonCodec jsonCodec;
+    @Value("${batch.max.post.codes}")
+    private int maxBatchPostCodes;
+    @Value("${history.max.days}")
+    private int maxHistoryDays;
+    /**
+     * The response carries an ETag of the upstream data behind it and may be cached until
+     * SMHI's next update. A request whose If-None-Match has the current ETag gets 304 Not
+     * Modified, and the response is not built for it.
+     * <p>
+     * With {@code from} and {@code to} (ISO dates, both inclusive) the response covers that
+     * range from SMHI's archive instead of the last 24 hours.
+     */
     @GetMapping("/combined")
-    public Response getCombinedData(
-            @RequestParam String postCode
-    ) throws IOException {
-        return combinationService.combineData(postCode);
+    public CompletableFuture<ResponseEntity<Response>> getCombinedData(
+            @RequestParam String postCode,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        if (from != null || to != null) {
+            checkRange(from, to);
+            return combinationService.combineDataAsync(postCode, from, to).thenApply(ResponseEntity::ok);
+        }
+        List<ETag> known = ifNoneMatch == null ? List.of() : ETag.parse(ifNoneMatch);
+        return combinationService.combineDataAsync(postCode, etag -> known.stream()
+                        .anyMatch(tag -> tag.isWildcard() || tag.tag().equals(etag)))
+                .thenApply(this::toResponseEntity);
+    }
+
+    private void checkRange(LocalDate from, LocalDate to) {
+        if (from == null || to == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Both from and to are required for a range");
+        }
+        if (to.isBefore(from)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must not be after to");
+        }
+        if (to.isAfter(LocalDate.now(ZoneId.of("Europe/Stockholm")))) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "to must not be in the future");
+        }
+        if (ChronoUnit.DAYS.between(from, to) >= maxHistoryDays) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "A range may span at most " + maxHistoryDays + " days");
+        }
+    }
+
+    private ResponseEntity<Response> toResponseEntity(VersionedResponse versioned) {
+        Duration maxAge = Duration.between(Instant.now(), versioned.freshUntil());
+        CacheControl cacheControl = CacheControl.maxAge(maxAge.isNegative() ? Duration.ZERO : maxAge).cachePublic();
+        if (versioned.response() == null) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(versioned.etag())
+                    .cacheControl(cacheControl)
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .eTag(versioned.etag())
+                .cacheControl(cacheControl)
+                .body(versioned.response());
+    }
+
+    /**
+     * Combines every post code of the body. A post code that cannot be combined gets an entry
+     * with only an {@code error}; the others are returned as usual.
+     */
+    @PostMapping("/combined/batch")
+    public CompletableFuture<Map<String, BatchEntry>> getCombinedData(
+            @RequestBody List<String> postCodes
+    ) {
+        if (postCodes.size() > maxBatchPostCodes) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "A batch may contain at most " + maxBatchPostCodes + " post codes");
+        }
+        return combinationService.combineDataAsync(postCodes);
+    }
+
+    /**
+     * Newline delimited JSON: a first line {"electricityArea": ...} followed by one line per
+     * combined row, each written and flushed as soon as it is joined. Takes the same optional
+     * {@code from} and {@code to} as {@link #getCombinedData(String, LocalDate, LocalDate, String)};
+     * a long range is streamed a chunk of days at a time.
+     */
+    @GetMapping(value = "/combined/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody streamCombinedData(
+            @RequestParam String postCode,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to
+    ) {
+        boolean history = from != null || to != null;
+        if (history) {
+            checkRange(from, to);
+        }
+        return outputStream -> {
+            try (JsonGenerator generator = jsonCodec.objectMapper().createGenerator(outputStream)) {
+                generator.setPrettyPrinter(new MinimalPrettyPrinter("\n"));
+                ResponseSink sink = new ResponseSink() {
+                    @Override
+                    public void electricityArea(String electricityArea) throws IOException {
+                        generator.writeStartObject();
+                        generator.writeStringField("electricityArea", electricityArea);
+                        generator.writeEndObject();
+                        generator.flush();
+                    }
+
+                    @Override
+                    public void row(CombinedWeatherElectricityData row) throws IOException {
+                        generator.writeObject(row);
+                        generator.flush();
+                    }
+                };
+                if (history) {
+                    combinationService.combineData(postCode, from, to, sink);
+                } else {
+                    combinationService.combineData(postCode, sink);
+                }
+                generator.writeRaw('\n');
+            }
+        };
+    }
+
+    /**
+     * Server-Sent Events variant of the stream: an "electricityArea" event followed by one
+     * "data" event per combined row. Takes the same optional {@code from} and {@code to} as
+     * the NDJSON stream.
+     */
+    @GetMapping(value = "/combined/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamCombinedDataEvents(
+            @RequestParam String postCode,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to
+    ) {
+        if (from != null || to != null) {
+            checkRange(from, to);
+        }
+        SseEmitter emitter = new SseEmitter();
+        combinationService.combineDataAsync(postCode, from, to, new ResponseSink() {
+            @Override
+            public void electricityArea(String electricityArea) throws IOException {
+                emitter.send(SseEmitter.event().name("electricityArea").data(electricityArea));
+            }
+
+            @Override
+            public void row(CombinedWeatherElectricityData row) throws IOException {
+                emitter.send(SseEmitter.event().name("data").data(row, MediaType.APPLICATION_JSON));
+            }
+        }).whenComplete((done, failure) -> {
+            if (failure == null) {
+                emitter.complete();
+            } else {
+                emitter.completeWithError(failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause() : failure);
+            }
+        });
+        return emitter;
     }
 }
@@ -0,0 +1,22 @@
+package io.github.mjsaa.energy_weather_api.data;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * One post code of a batch response: the combined data, or why it could not be combined.
+ *
+ * @param error null if the post code was combined
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchEntry(String electricityArea, List<CombinedWeatherElectricityData> data, String error) {
+
+    public static BatchEntry of(Response response) {
+        return new BatchEntry(response.electricityArea(), response.data(), null);
+    }
+
+    public static BatchEntry failed(String error) {
+        return new BatchEntry(null, null, error);
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.mjsaa.energy_weather_api.data;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One day of prices for one zone, parsed once into sorted primitive columns. Intervals may be
+ * of any length, so both hourly and quarter-hourly price files are supported.
+ *
+ * @param intervalStarts time_start of every price interval as epoch millis, ascending
+ * @param intervalEnds   time_end of the interval at the same index, exclusive
+ * @param prices         SEK_per_kWh for the interval at the same index
+ */
+public record DayPriceTable(long[] intervalStarts, long[] intervalEnds, double[] prices) {
+    private static final long HOUR_MILLIS = 3_600_000L;
+
+    public static DayPriceTable of(List<ElectricityPrice> electricityPrices) {
+        int size = electricityPrices.size();
+        // Every row is parsed once; the rows are then ordered by index
+        long[] unsortedStarts = new long[size];
+        long[] unsortedEnds = new long[size];
+        int[] order = new int[size];
+        boolean sorted = true;
+        for (int i = 0; i < size; i++) {
+            ElectricityPrice price = electricityPrices.get(i);
+            unsortedStarts[i] = OffsetDateTime.parse(price.time()).toInstant().toEpochMilli();
+            if (price.timeEnd() != null) {
+                unsortedEnds[i] = OffsetDateTime.parse(price.timeEnd()).toInstant().toEpochMilli();
+            }
+            order[i] = i;
+            sorted &= i == 0 || unsortedStarts[i - 1] <= unsortedStarts[i];
+        }
+        if (!sorted) {
+            // The API lists a day in time order, so this is rare and the day is short
+            for (int i = 1; i < size; i++) {
+                int index = order[i];
+                int j = i - 1;
+                for (; j >= 0 && unsortedStarts[order[j]] > unsortedStarts[index]; j--) {
+                    order[j + 1] = order[j];
+                }
+                order[j + 1] = index;
+            }
+        }
+        long[] starts = new long[size];
+        long[] ends = new long[size];
+        double[] prices = new double[size];
+        for (int i = 0; i < size; i++) {
+            starts[i] = unsortedStarts[order[i]];
+            ends[i] = unsortedEnds[order[i]];
+            prices[i] = Double.parseDouble(electricityPrices.get(order[i]).priceInSEK());
+        }
+        for (int i = 0; i < size; i++) {
+            if (ends[i] == 0) {
+                // Without time_end an interval lasts until the next one, or an hour for the last one
+                ends[i] = i + 1 < size ? starts[i + 1] : starts[i] + HOUR_MILLIS;
+            }
+        }
+        return new DayPriceTable(starts, ends, prices);
+    }
+
+    /**
+     * @return whether the time falls inside one of this table's intervals' overall span
+     */
+    public boolean covers(long epochMillis) {
+        int size = intervalStarts.length;
+        return size > 0 && epochMillis >= intervalStarts[0] && epochMillis < intervalEnds[size - 1];
+    }
+
+    /**
+     * @return the price of the interval containing the given time, or NaN if no interval does
+     */
+    public double priceValueAt(long epochMillis) {
+        int index = Arrays.binarySearch(intervalStarts, epochMillis);
+        if (index < 0) {
+            // The interval that starts before the time is the only one that can contain it
+            index = -index - 2;
+        }
+        if (index < 0 || epochMillis >= intervalEnds[index]) {
+            return Double.NaN;
+        }
+        return prices[index];
+    }
+
+    /**
+     * The price is written as the shortest plain decimal of its value, since tables are stored
+     * as doubles, so the upstream text is not kept as is: "0.50" becomes "0.5" and "1.2E-4"
+     * becomes "0.00012".
+     *
+     * @return the price of the interval containing the given time, or null if no interval does
+     */
+    public String priceAt(long epochMillis) {
+        double price = priceValueAt(epochMillis);
+        return Double.isNaN(price) ? null : BigDecimal.valueOf(price).toPlainString();
+    }
+
+    public int size() {
+        return intervalStarts.length;
+    }
+}
@@ -5,4 +5,5 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public record ElectricityPrice(
         @JsonProperty("SEK_per_kWh") String priceInSEK,
-        @JsonProperty("time_start") String time) {}
+        @JsonProperty("time_start") String time,
+        @JsonProperty("time_end") String timeEnd) {}
@@ -5,5 +5,6 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.List;
 @JsonIgnoreProperties(ignoreUnknown = true)
-public record StationResponse(@JsonProperty("station") List<Station> stations) {
+public record StationResponse(@JsonProperty("key") String key,
+                              @JsonProperty("station") List<Station> stations) {
 }
@@ -0,0 +1,28 @@
+package io.github.mjsaa.energy_weather_api.data;
+
+/**
+ * One SMHI parameter series for one station as primitive columns.
+ *
+ * @param timestamps observation times as epoch millis, in the order SMHI returned them
+ * @param values     observed value at the same index, NaN if SMHI had no value
+ */
+public record TimeSeries(long[] timestamps, double[] values) {
+
+    public int size() {
+        return timestamps.length;
+    }
+
+    /**
+     * Content hash of the series. A latest-day series has at most a few dozen points, so this
+     * is far cheaper than building anything from it.
+     */
+    public long version() {
+        // FNV-1a over the raw columns
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < timestamps.length; i++) {
+            hash = (hash ^ timestamps[i]) * 0x100000001b3L;
+            hash = (hash ^ Double.doubleToLongBits(values[i])) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,13 @@
+package io.github.mjsaa.energy_weather_api.data;
+
+import java.time.Instant;
+
+/**
+ * A combined response with the version of the upstream data it was built from.
+ *
+ * @param etag       changes whenever any series, the zone or the price days behind the response change
+ * @param response   the response, or null if the caller already has this version
+ * @param freshUntil when the upstream data is next expected to change
+ */
+public record VersionedResponse(String etag, Response response, Instant freshUntil) {
+}
@@ -0,0 +1,111 @@
+package io.github.mjsaa.energy_weather_api.data;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Temperature, wind speed and cloudiness on one shared time axis. Every column has one value
+ * per timestamp and a value that a series did not report is NaN.
+ */
+public record WeatherColumns(long[] timestamps, double[] temperature, double[] windSpeed, double[] cloudiness) {
+
+    public int size() {
+        return timestamps.length;
+    }
+
+    /**
+     * Merge-joins the three series in one linear pass over their time axes. SMHI returns
+     * series in time order, so the only allocations are the output columns. A timestamp that
+     * a series reports more than once keeps its first value.
+     */
+    public static WeatherColumns join(TimeSeries temperature, TimeSeries windSpeed, TimeSeries cloudiness) {
+        TimeSeries[] series = {sorted(temperature), sorted(windSpeed), sorted(cloudiness)};
+        int size = distinctTimestamps(series);
+        long[] timestamps = new long[size];
+        double[][] columns = new double[series.length][size];
+        int[] positions = new int[series.length];
+        for (int row = 0; row < size; row++) {
+            long next = nextTimestamp(series, positions);
+            timestamps[row] = next;
+            for (int s = 0; s < series.length; s++) {
+                long[] times = series[s].timestamps();
+                int position = positions[s];
+                if (position < times.length && times[position] == next) {
+                    columns[s][row] = series[s].values()[position];
+                    do {
+                        position++;
+                    } while (position < times.length && times[position] == next);
+                    positions[s] = position;
+                } else {
+                    columns[s][row] = Double.NaN;
+                }
+            }
+        }
+        return new WeatherColumns(timestamps, columns[0], columns[1], columns[2]);
+    }
+
+    private static int distinctTimestamps(TimeSeries[] series) {
+        int[] positions = new int[series.length];
+        int count = 0;
+        while (true) {
+            long next = nextTimestamp(series, positions);
+            if (next == Long.MAX_VALUE && exhausted(series, positions)) {
+                return count;
+            }
+            count++;
+            for (int s = 0; s < series.length; s++) {
+                long[] times = series[s].timestamps();
+                while (positions[s] < times.length && times[positions[s]] == next) {
+                    positions[s]++;
+                }
+            }
+        }
+    }
+
+    private static long nextTimestamp(TimeSeries[] series, int[] positions) {
+        long next = Long.MAX_VALUE;
+        for (int s = 0; s < series.length; s++) {
+            long[] times = series[s].timestamps();
+            if (positions[s] < times.length && times[positions[s]] < next) {
+                next = times[positions[s]];
+            }
+        }
+        return next;
+    }
+
+    private static boolean exhausted(TimeSeries[] series, int[] positions) {
+        for (int s = 0; s < series.length; s++) {
+            if (positions[s] < series[s].timestamps().length) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static TimeSeries sorted(TimeSeries series) {
+        long[] times = series.timestamps();
+        for (int i = 1; i < times.length; i++) {
+            if (times[i] < times[i - 1]) {
+                return sortByTime(series);
+            }
+        }
+        return series;
+    }
+
+    private static TimeSeries sortByTime(TimeSeries series) {
+        long[] times = series.timestamps();
+        Integer[] order = new Integer[times.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // Stable, so repeated timestamps keep their original order
+        Arrays.sort(order, Comparator.comparingLong(i -> times[i]));
+        long[] sortedTimes = new long[order.length];
+        double[] sortedValues = new double[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedTimes[i] = times[order[i]];
+            sortedValues[i] = series.values()[order[i]];
+        }
+        return new TimeSeries(sortedTimes, sortedValues);
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Publishes the counters the caches already keep, under the same names Micrometer uses for
+ * its own cache binders: {@code cache.gets} by result and {@code cache.size}, tagged with the
+ * cache name. The hit ratio is hits / (hits + misses).
+ */
+@Component
+public class CacheMetrics implements MeterBinder {
+    @Autowired
+    ElectricityPriceCache electricityPriceCache;
+    @Autowired
+    ElectricityZoneCache electricityZoneCache;
+    @Autowired
+    GeocodeCache geocodeCache;
+    @Autowired
+    SeriesCache seriesCache;
+    @Autowired
+    ResponseCache responseCache;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        gets(registry, "prices", electricityPriceCache, ElectricityPriceCache::hitCount, ElectricityPriceCache::missCount);
+        gets(registry, "zones", electricityZoneCache, ElectricityZoneCache::hitCount, ElectricityZoneCache::missCount);
+        gets(registry, "geocode", geocodeCache, GeocodeCache::hitCount, GeocodeCache::missCount);
+        gets(registry, "series", seriesCache, SeriesCache::hitCount, SeriesCache::missCount);
+        gets(registry, "responses", responseCache, ResponseCache::hitCount, ResponseCache::missCount);
+
+        size(registry, "prices", electricityPriceCache, ElectricityPriceCache::size);
+        size(registry, "zones", electricityZoneCache, ElectricityZoneCache::size);
+        size(registry, "geocode", geocodeCache, GeocodeCache::size);
+        size(registry, "series", seriesCache, SeriesCache::size);
+        size(registry, "responses", responseCache, ResponseCache::size);
+
+        FunctionCounter.builder("cache.evictions", electricityPriceCache, ElectricityPriceCache::evictionCount)
+                .tags("cache", "prices")
+                .register(registry);
+        // Stale series the upstream confirmed unchanged with a 304
+        FunctionCounter.builder("cache.revalidations", seriesCache, SeriesCache::notModifiedCount)
+                .tags("cache", "series", "result", "not_modified")
+                .register(registry);
+    }
+
+    private static <T> void gets(MeterRegistry registry, String cache, T source,
+                                 ToDoubleFunction<T> hits, ToDoubleFunction<T> misses) {
+        FunctionCounter.builder("cache.gets", source, hits)
+                .tags("cache", cache, "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", source, misses)
+                .tags("cache", cache, "result", "miss")
+                .register(registry);
+    }
+
+    private static <T> void size(MeterRegistry registry, String cache, T source, ToDoubleFunction<T> size) {
+        Gauge.builder("cache.size", source, size)
+                .tags("cache", cache)
+                .register(registry);
+    }
+}
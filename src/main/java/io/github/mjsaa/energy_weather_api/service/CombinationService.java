@@ -1,22 +1,463 @@
 package io.github.mjsaa.energy_weather_api.service;
 
+import io.github.mjsaa.energy_weather_api.data.BatchEntry;
 import io.github.mjsaa.energy_weather_api.data.CombinedWeatherElectricityData;
+import io.github.mjsaa.energy_weather_api.data.DayPriceTable;
+import io.github.mjsaa.energy_weather_api.data.Location;
 import io.github.mjsaa.energy_weather_api.data.Response;
+import io.github.mjsaa.energy_weather_api.data.TimeSeries;
+import io.github.mjsaa.energy_weather_api.data.VersionedResponse;
+import io.github.mjsaa.energy_weather_api.data.WeatherColumns;
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.ConstraintViolationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static io.github.mjsaa.energy_weather_api.service.WeatherService.SMHI_CLOUDINESS_PARAMETER;
+import static io.github.mjsaa.energy_weather_api.service.WeatherService.SMHI_TEMP_PARAMETER;
+import static io.github.mjsaa.energy_weather_api.service.WeatherService.SMHI_WIND_PARAMETER;
 
 @Service
 public class CombinationService {
+    private static final Logger log = LoggerFactory.getLogger(CombinationService.class);
+    private static final ZoneId STOCKHOLM = ZoneId.of("Europe/Stockholm");
     @Autowired
     WeatherService weatherService;
     @Autowired
     ElectricityService electricityService;
+    @Autowired
+    PostPositionService postPositionService;
+    @Autowired
+    SeriesCache seriesCache;
+    @Autowired
+    ResponseCache responseCache;
+    @Autowired
+    PipelineMetrics pipelineMetrics;
+    @Value("${history.chunk.days:7}")
+    private int historyChunkDays;
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("combine-", 0).factory());
+
+    @PreDestroy
+    void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Asynchronous {@link #combineData(String, Predicate)}: the request runs on its own virtual
+     * thread and the caller's thread is free while the upstream calls are in flight.
+     */
+    public CompletableFuture<VersionedResponse> combineDataAsync(String postCode, Predicate<String> isCurrent) {
+        return supplyAsync(() -> combineData(postCode, isCurrent));
+    }
+
+    /**
+     * Asynchronous {@link #combineData(String, LocalDate, LocalDate)}.
+     */
+    public CompletableFuture<Response> combineDataAsync(String postCode, LocalDate from, LocalDate to) {
+        return supplyAsync(() -> combineData(postCode, from, to));
+    }
+
+    /**
+     * Asynchronous streaming {@link #combineData(String, ResponseSink)}, or
+     * {@link #combineData(String, LocalDate, LocalDate, ResponseSink)} if from and to are given.
+     */
+    public CompletableFuture<Void> combineDataAsync(String postCode, LocalDate from, LocalDate to, ResponseSink sink) {
+        return supplyAsync(() -> {
+            if (from != null && to != null) {
+                combineData(postCode, from, to, sink);
+            } else {
+                combineData(postCode, sink);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronous {@link #combineData(List)}.
+     */
+    public CompletableFuture<Map<String, BatchEntry>> combineDataAsync(List<String> postCodes) {
+        return supplyAsync(() -> combineData(postCodes));
+    }
+
+    /**
+     * Fetches every upstream resource of a request concurrently, so the latency is bounded by
+     * the slowest upstream call rather than their sum. The SMHI series wait only for the
+     * location and the day prices only for the zone.
+     */
     public Response combineData(String postCode) throws IOException {
-        String electricityArea = electricityService.getElectricityArea(postCode);
-        List<CombinedWeatherElectricityData> data = weatherService.getCombinedData(postCode);
+        try (FanOut fanOut = new FanOut()) {
+            RequestForks forks = fork(fanOut, postCode);
+            return assemble(postCode, forks.location().join(), forks.electricityArea().join(), forks);
+        }
+    }
+
+    /**
+     * Versioned variant of {@link #combineData(String)}. The version is derived from the
+     * series, the zone and the price days behind the response. Those are still fetched when
+     * the response is not cached, but a client that already has the version gets no body and
+     * the rows are not assembled. Built responses are served from the response cache until
+     * the next SMHI update or the next Swedish midnight, whichever comes first, since the
+     * price days change at midnight.
+     *
+     * @param isCurrent tells whether the caller already has a version
+     */
+    public VersionedResponse combineData(String postCode, Predicate<String> isCurrent) throws IOException {
+        VersionedResponse cached = responseCache.get(postCode);
+        if (cached != null) {
+            return isCurrent.test(cached.etag()) ? new VersionedResponse(cached.etag(), null, cached.freshUntil()) : cached;
+        }
+        Instant nextUpdate = seriesCache.nextUpdate();
+        Instant midnight = LocalDate.now(STOCKHOLM).plusDays(1).atStartOfDay(STOCKHOLM).toInstant();
+        Instant freshUntil = nextUpdate.isBefore(midnight) ? nextUpdate : midnight;
+        try (FanOut fanOut = new FanOut()) {
+            RequestForks forks = fork(fanOut, postCode);
+            String electricityArea = forks.electricityArea().join();
+            String etag = version(postCode, electricityArea, forks);
+            if (isCurrent.test(etag)) {
+                return new VersionedResponse(etag, null, freshUntil);
+            }
+            Response response = assemble(postCode, forks.location().join(), electricityArea, forks);
+            VersionedResponse versioned = new VersionedResponse(etag, response, freshUntil);
+            responseCache.put(postCode, versioned);
+            return versioned;
+        }
+    }
+
+    /**
+     * Streaming variant of {@link #combineData(String)}. The electricity area goes to the sink
+     * as soon as the zone is known, and every row as soon as it is joined, so nothing but the
+     * upstream series is held in memory.
+     */
+    public void combineData(String postCode, ResponseSink sink) throws IOException {
+        try (FanOut fanOut = new FanOut()) {
+            RequestForks forks = fork(fanOut, postCode);
+            String electricityArea = forks.electricityArea().join();
+            sink.electricityArea(electricityArea);
+            PostCodeContext context = context(postCode, forks.location().join(), electricityArea,
+                    forks.days(), join(forks.prices()));
+            weatherService.forEachCombined(context, forks.temperature().join(), forks.windSpeed().join(),
+                    forks.cloudiness().join(), sink::row);
+        }
+    }
+
+    /**
+     * Historical variant of {@link #combineData(String)} for the Swedish dates from and to,
+     * both inclusive.
+     */
+    public Response combineData(String postCode, LocalDate from, LocalDate to) throws IOException {
+        List<CombinedWeatherElectricityData> data = new ArrayList<>();
+        String[] electricityArea = new String[1];
+        combineData(postCode, from, to, new ResponseSink() {
+            @Override
+            public void electricityArea(String area) {
+                electricityArea[0] = area;
+            }
+
+            @Override
+            public void row(CombinedWeatherElectricityData row) {
+                data.add(row);
+            }
+        });
+        return new Response(electricityArea[0], data);
+    }
+
+    /**
+     * Streaming historical variant. The series for the whole range are fetched first; they are
+     * primitive columns and small next to the rows built from them. The range is then joined a
+     * chunk of days at a time: the price days of a chunk are fetched in parallel, its rows go
+     * to the sink and its price tables are dropped before the next chunk, so memory does not
+     * grow with the length of the range beyond the series themselves.
+     */
+    public void combineData(String postCode, LocalDate from, LocalDate to, ResponseSink sink) throws IOException {
+        long fromMillis = from.atStartOfDay(STOCKHOLM).toInstant().toEpochMilli();
+        long toMillis = to.plusDays(1).atStartOfDay(STOCKHOLM).toInstant().toEpochMilli();
+        try (FanOut fanOut = new FanOut()) {
+            FanOut.Fork<Location> location = fanOut.fork(() -> postPositionService.getLocation(postCode));
+            FanOut.Fork<String> electricityArea = fanOut.fork(() -> electricityService.getElectricityArea(postCode));
+            FanOut.Fork<TimeSeries> temperature = fanOut.fork(
+                    () -> history(location.join(), SMHI_TEMP_PARAMETER, fromMillis, toMillis));
+            FanOut.Fork<TimeSeries> windSpeed = fanOut.fork(
+                    () -> history(location.join(), SMHI_WIND_PARAMETER, fromMillis, toMillis));
+            FanOut.Fork<TimeSeries> cloudiness = fanOut.fork(
+                    () -> history(location.join(), SMHI_CLOUDINESS_PARAMETER, fromMillis, toMillis));
+
+            String area = electricityArea.join();
+            sink.electricityArea(area);
+            WeatherColumns columns = WeatherColumns.join(temperature.join(), windSpeed.join(), cloudiness.join());
+            int row = 0;
+            for (LocalDate chunk = from; !chunk.isAfter(to); chunk = chunk.plusDays(historyChunkDays)) {
+                LocalDate end = chunk.plusDays(historyChunkDays).isAfter(to) ? to.plusDays(1) : chunk.plusDays(historyChunkDays);
+                PostCodeContext context = new PostCodeContext(postCode, location.join(), area, electricityService);
+                addHistoricalPrices(context, chunk, end);
+                row = weatherService.forEachCombined(context, columns, row,
+                        end.atStartOfDay(STOCKHOLM).toInstant().toEpochMilli(), sink::row);
+            }
+        }
+    }
+
+    /**
+     * Combines many post codes at once. Post codes are grouped by their nearest live station
+     * per parameter and by their zone, so every distinct SMHI series and day price file is
+     * fetched only once, however many post codes share it. Responses are then assembled per
+     * post code in parallel.
+     * <p>
+     * Post codes fail independently: one that cannot be resolved, or whose data cannot be
+     * fetched, gets an error entry and the rest of the batch is still combined.
+     *
+     * @return entries keyed by post code, in request order
+     */
+    public Map<String, BatchEntry> combineData(List<String> postCodes) throws IOException {
+        List<String> distinctPostCodes = postCodes.stream().distinct().toList();
+        try (FanOut fanOut = new FanOut()) {
+            Map<String, FanOut.Fork<Attempt<Location>>> locations = new HashMap<>();
+            Map<String, FanOut.Fork<Attempt<String>>> electricityAreas = new HashMap<>();
+            for (String postCode : distinctPostCodes) {
+                locations.put(postCode, fanOut.fork(attempt(
+                        () -> pipelineMetrics.time("location", () -> postPositionService.getLocation(postCode)))));
+                electricityAreas.put(postCode, fanOut.fork(attempt(
+                        () -> pipelineMetrics.time("zone", () -> electricityService.getElectricityArea(postCode)))));
+            }
+
+            List<LocalDate> days = electricityService.latestDays();
+            Map<String, FanOut.Fork<Attempt<TimeSeries>>> series = new HashMap<>();
+            Map<String, FanOut.Fork<Attempt<DayPriceTable>>> dayPrices = new HashMap<>();
+            Map<String, FanOut.Fork<BatchEntry>> entries = new HashMap<>();
+            Map<String, BatchEntry> failed = new HashMap<>();
+            for (String postCode : distinctPostCodes) {
+                try {
+                    Location location = locations.get(postCode).join().get();
+                    String electricityArea = electricityAreas.get(postCode).join().get();
+                    FanOut.Fork<Attempt<TimeSeries>> temperature = forkSeries(fanOut, series, postCode, location, SMHI_TEMP_PARAMETER);
+                    FanOut.Fork<Attempt<TimeSeries>> windSpeed = forkSeries(fanOut, series, postCode, location, SMHI_WIND_PARAMETER);
+                    FanOut.Fork<Attempt<TimeSeries>> cloudiness = forkSeries(fanOut, series, postCode, location, SMHI_CLOUDINESS_PARAMETER);
+                    List<FanOut.Fork<Attempt<DayPriceTable>>> prices = new ArrayList<>(days.size());
+                    for (LocalDate day : days) {
+                        prices.add(dayPrices.computeIfAbsent(electricityArea + "/" + day, key -> fanOut.fork(attempt(
+                                () -> pipelineMetrics.time("prices", () -> electricityService.getElectricityPrices(day, electricityArea))))));
+                    }
+                    entries.put(postCode, fanOut.fork(() -> {
+                        try {
+                            List<DayPriceTable> tables = new ArrayList<>(prices.size());
+                            for (FanOut.Fork<Attempt<DayPriceTable>> dayPrice : prices) {
+                                tables.add(dayPrice.join().get());
+                            }
+                            return BatchEntry.of(assemble(postCode, location, electricityArea, days, tables,
+                                    temperature.join().get(), windSpeed.join().get(), cloudiness.join().get()));
+                        } catch (Exception e) {
+                            return failedEntry(postCode, e);
+                        }
+                    }));
+                } catch (Exception e) {
+                    failed.put(postCode, failedEntry(postCode, e));
+                }
+            }
+
+            Map<String, BatchEntry> result = new LinkedHashMap<>();
+            for (String postCode : distinctPostCodes) {
+                BatchEntry failure = failed.get(postCode);
+                result.put(postCode, failure != null ? failure : entries.get(postCode).join());
+            }
+            return result;
+        }
+    }
+
+    private static BatchEntry failedEntry(String postCode, Exception e) {
+        log.debug("Could not combine post code {} of a batch", postCode, e);
+        if (e instanceof ConstraintViolationException violation) {
+            return BatchEntry.failed(violation.getConstraintViolations().stream()
+                    .map(ConstraintViolation::getMessage)
+                    .collect(Collectors.joining(", ")));
+        }
+        if (e instanceof FileNotFoundException) {
+            return BatchEntry.failed("No data found for post code " + postCode);
+        }
+        // Upstream messages may carry URLs with credentials, so they are not passed on
+        return BatchEntry.failed("Could not retrieve upstream data for post code " + postCode);
+    }
+
+    private RequestForks fork(FanOut fanOut, String postCode) {
+        FanOut.Fork<Location> location = fanOut.fork(
+                () -> pipelineMetrics.time("location", () -> postPositionService.getLocation(postCode)));
+        FanOut.Fork<String> electricityArea = fanOut.fork(
+                () -> pipelineMetrics.time("zone", () -> electricityService.getElectricityArea(postCode)));
+        List<LocalDate> days = electricityService.latestDays();
+        List<FanOut.Fork<DayPriceTable>> prices = days.stream()
+                .map(day -> fanOut.fork(() -> {
+                    String area = electricityArea.join();
+                    return pipelineMetrics.time("prices", () -> electricityService.getElectricityPrices(day, area));
+                }))
+                .toList();
+        FanOut.Fork<TimeSeries> temperature = fanOut.fork(() -> series(postCode, location.join(), SMHI_TEMP_PARAMETER));
+        FanOut.Fork<TimeSeries> windSpeed = fanOut.fork(() -> series(postCode, location.join(), SMHI_WIND_PARAMETER));
+        FanOut.Fork<TimeSeries> cloudiness = fanOut.fork(() -> series(postCode, location.join(), SMHI_CLOUDINESS_PARAMETER));
+        return new RequestForks(location, electricityArea, days, prices, temperature, windSpeed, cloudiness);
+    }
+
+    private TimeSeries series(String postCode, Location location, String parameter) throws IOException {
+        return pipelineMetrics.time("series", () -> weatherService.getSeries(postCode, location, parameter));
+    }
+
+    private static String version(String postCode, String electricityArea, RequestForks forks) throws IOException {
+        // Published day-ahead prices never change, so the zone and the days identify them
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ postCode.hashCode()) * 0x100000001b3L;
+        hash = (hash ^ electricityArea.hashCode()) * 0x100000001b3L;
+        for (LocalDate day : forks.days()) {
+            hash = (hash ^ day.toEpochDay()) * 0x100000001b3L;
+        }
+        hash = (hash ^ forks.temperature().join().version()) * 0x100000001b3L;
+        hash = (hash ^ forks.windSpeed().join().version()) * 0x100000001b3L;
+        hash = (hash ^ forks.cloudiness().join().version()) * 0x100000001b3L;
+        return Long.toHexString(hash);
+    }
+
+    private FanOut.Fork<Attempt<TimeSeries>> forkSeries(FanOut fanOut,
+                                                        Map<String, FanOut.Fork<Attempt<TimeSeries>>> series,
+                                                        String postCode,
+                                                        Location location,
+                                                        String parameter) throws IOException {
+        // If the shared station turns out to have no data, the fallback from the first
+        // location that needed it serves the whole group
+        return series.computeIfAbsent(weatherService.seriesKey(postCode, location, parameter),
+                key -> fanOut.fork(attempt(() -> series(postCode, location, parameter))));
+    }
+
+    private Response assemble(String postCode, Location location, String electricityArea, RequestForks forks)
+            throws IOException {
+        return assemble(postCode, location, electricityArea, forks.days(), join(forks.prices()),
+                forks.temperature().join(), forks.windSpeed().join(), forks.cloudiness().join());
+    }
+
+    private Response assemble(String postCode,
+                              Location location,
+                              String electricityArea,
+                              List<LocalDate> days,
+                              List<DayPriceTable> prices,
+                              TimeSeries temperature,
+                              TimeSeries windSpeed,
+                              TimeSeries cloudiness) throws IOException {
+        PostCodeContext context = context(postCode, location, electricityArea, days, prices);
+        // Joining, price lookup and sun position per row
+        List<CombinedWeatherElectricityData> data = pipelineMetrics.time("assemble",
+                () -> weatherService.getCombinedData(context, temperature, windSpeed, cloudiness));
         return new Response(electricityArea, data);
     }
+
+    private PostCodeContext context(String postCode,
+                                    Location location,
+                                    String electricityArea,
+                                    List<LocalDate> days,
+                                    List<DayPriceTable> prices) {
+        PostCodeContext context = new PostCodeContext(postCode, location, electricityArea, electricityService);
+        for (int i = 0; i < days.size(); i++) {
+            context.addPrices(days.get(i), prices.get(i));
+        }
+        return context;
+    }
+
+    private static <T> List<T> join(List<FanOut.Fork<T>> forks) throws IOException {
+        List<T> values = new ArrayList<>(forks.size());
+        for (FanOut.Fork<T> fork : forks) {
+            values.add(fork.join());
+        }
+        return values;
+    }
+
+    private TimeSeries history(Location location, String parameter, long from, long to) throws IOException {
+        return pipelineMetrics.time("history", () -> weatherService.getHistory(location, parameter, from, to));
+    }
+
+    /**
+     * Fetches the prices of the days [from, end) in parallel. Days without published prices,
+     * such as those before the price API's history starts, get no price.
+     */
+    private void addHistoricalPrices(PostCodeContext context, LocalDate from, LocalDate end) throws IOException {
+        try (FanOut fanOut = new FanOut()) {
+            Map<LocalDate, FanOut.Fork<DayPriceTable>> prices = new LinkedHashMap<>();
+            for (LocalDate day = from; day.isBefore(end); day = day.plusDays(1)) {
+                LocalDate priceDay = day;
+                prices.put(day, fanOut.fork(() -> {
+                    try {
+                        return electricityService.getHistoricalPrices(priceDay, context.electricityArea());
+                    } catch (FileNotFoundException e) {
+                        return null;
+                    }
+                }));
+            }
+            for (Map.Entry<LocalDate, FanOut.Fork<DayPriceTable>> dayPrices : prices.entrySet()) {
+                DayPriceTable table = dayPrices.getValue().join();
+                if (table != null) {
+                    context.addPrices(dayPrices.getKey(), table);
+                } else {
+                    context.addMissingPrices(dayPrices.getKey());
+                }
+            }
+        }
+    }
+
+    private static <T> Callable<Attempt<T>> attempt(Callable<T> task) {
+        return () -> {
+            try {
+                return new Attempt<>(task.call(), null);
+            } catch (Exception e) {
+                return new Attempt<>(null, e);
+            }
+        };
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(Callable<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * The outcome of a batch fork, so a failing post code does not cancel its siblings.
+     */
+    private record Attempt<T>(T value, Exception failure) {
+        T get() throws Exception {
+            if (failure != null) {
+                throw failure;
+            }
+            return value;
+        }
+    }
+
+    private record RequestForks(FanOut.Fork<Location> location,
+                                FanOut.Fork<String> electricityArea,
+                                List<LocalDate> days,
+                                List<FanOut.Fork<DayPriceTable>> prices,
+                                FanOut.Fork<TimeSeries> temperature,
+                                FanOut.Fork<TimeSeries> windSpeed,
+                                FanOut.Fork<TimeSeries> cloudiness) {}
 }
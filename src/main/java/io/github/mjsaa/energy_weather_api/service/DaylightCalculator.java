@@ -0,0 +1,92 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.Location;
+import org.shredzone.commons.suncalc.SunTimes;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Answers whether the sun is up at a time and place. Sunrise and sunset are computed once per
+ * Swedish local date and location, quantized to a hundredth of a degree (about a kilometre,
+ * which moves sunrise by seconds), and kept in a bounded LRU cache. Each check is then a couple
+ * of comparisons. Days where the sun never rises or never sets are handled as well.
+ */
+@Service
+public class DaylightCalculator {
+    private static final ZoneId STOCKHOLM = ZoneId.of("Europe/Stockholm");
+    private static final double QUANTUM = 100.0;
+
+    @Value("${daylight.cache.max.entries:4096}")
+    private int maxEntries;
+
+    private final Map<Key, Daylight> cache = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Daylight> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    public boolean isSunUp(Instant instant, Location location) {
+        return isSunUp(instant.toEpochMilli(), location);
+    }
+
+    public boolean isSunUp(long epochMillis, Location location) {
+        LocalDate day = Instant.ofEpochMilli(epochMillis).atZone(STOCKHOLM).toLocalDate();
+        Key key = new Key(day,
+                (int) Math.round(location.latitude() * QUANTUM),
+                (int) Math.round(location.longitude() * QUANTUM));
+        Daylight daylight;
+        synchronized (cache) {
+            daylight = cache.get(key);
+        }
+        if (daylight == null) {
+            daylight = compute(key);
+            synchronized (cache) {
+                cache.put(key, daylight);
+            }
+        }
+        return daylight.isUp(epochMillis);
+    }
+
+    private static Daylight compute(Key key) {
+        SunTimes times = SunTimes.compute()
+                .timezone(STOCKHOLM)
+                .on(key.day())
+                .latitude(key.latitude() / QUANTUM)
+                .longitude(key.longitude() / QUANTUM)
+                .oneDay()
+                .execute();
+        ZonedDateTime rise = times.getRise();
+        ZonedDateTime set = times.getSet();
+        if (rise == null && set == null) {
+            return times.isAlwaysUp()
+                    ? new Daylight(Long.MIN_VALUE, Long.MAX_VALUE)
+                    : new Daylight(Long.MAX_VALUE, Long.MIN_VALUE);
+        }
+        return new Daylight(
+                rise == null ? Long.MIN_VALUE : rise.toInstant().toEpochMilli(),
+                set == null ? Long.MAX_VALUE : set.toInstant().toEpochMilli());
+    }
+
+    private record Key(LocalDate day, int latitude, int longitude) {}
+
+    /**
+     * Sunrise and sunset within one local day. A missing sunrise is MIN_VALUE (the sun is already
+     * up at midnight) and a missing sunset is MAX_VALUE (it is still up at the next midnight).
+     * When the sun sets before it rises, it is up outside the interval instead of inside it.
+     */
+    private record Daylight(long rise, long set) {
+        boolean isUp(long epochMillis) {
+            return rise < set
+                    ? epochMillis > rise && epochMillis < set
+                    : epochMillis < set || epochMillis > rise;
+        }
+    }
+}
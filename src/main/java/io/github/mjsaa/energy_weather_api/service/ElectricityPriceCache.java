@@ -0,0 +1,88 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.DayPriceTable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded in-process cache of parsed day-ahead price tables keyed by (date, zone).
+ * Published day-ahead prices never change, so the TTL only limits how long a table
+ * may occupy memory. Least recently used tables are evicted first.
+ */
+@Service
+public class ElectricityPriceCache {
+    @Value("${el.price.cache.max.entries:256}")
+    private int maxEntries;
+    @Value("${el.price.cache.ttl:48h}")
+    private Duration ttl;
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            if (size() > maxEntries) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @FunctionalInterface
+    public interface Loader {
+        DayPriceTable load() throws IOException;
+    }
+
+    public DayPriceTable get(LocalDate day, String zone, Loader loader) throws IOException {
+        Key key = new Key(day, zone);
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt() > now) {
+                    hits.increment();
+                    return entry.table();
+                }
+                entries.remove(key);
+                evictions.increment();
+            }
+        }
+        misses.increment();
+        DayPriceTable table = loader.load();
+        synchronized (entries) {
+            entries.put(key, new Entry(table, now + ttl.toMillis()));
+        }
+        return table;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private record Key(LocalDate day, String zone) {}
+
+    private record Entry(DayPriceTable table, long expiresAt) {}
+}
@@ -1,11 +1,9 @@
 package io.github.mjsaa.energy_weather_api.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import io.github.mjsaa.energy_weather_api.client.UpstreamClient;
+import io.github.mjsaa.energy_weather_api.data.DayPriceTable;
 import io.github.mjsaa.energy_weather_api.data.ElectricityArea;
 import io.github.mjsaa.energy_weather_api.data.ElectricityPrice;
-import io.github.mjsaa.energy_weather_api.smhi.utils.SMHIService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -15,12 +13,12 @@ import org.springframework.validation.annotation.Validated;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
+import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 @Validated
 @Service
@@ -31,40 +29,95 @@ public class ElectricityService {
     private String elPrice;
 
     @Autowired
-    SMHIService smhiService;
+    UpstreamClient upstreamClient;
+    @Autowired
+    ElectricityPriceCache electricityPriceCache;
+    @Autowired
+    ElectricityZoneCache electricityZoneCache;
+    @Autowired
+    JsonCodec jsonCodec;
+    @Autowired
+    PostCodeTable postCodeTable;
+    @Autowired
+    ObservationStore observationStore;
+    private final SingleFlight<String, String> zoneFlight = new SingleFlight<>();
+    private final SingleFlight<String, DayPriceTable> priceFlight = new SingleFlight<>();
 
     public String getElectricityArea(@Pattern(regexp = "\\d{5}", message = "Postal code must be exactly 5 digits")
                                      String postCode) throws IOException {
-        var jsonString = smhiService.readStringFromUrl(elZoneUrl + postCode);
-
-        ObjectMapper mapper = new ObjectMapper().registerModule(new Jdk8Module());
-        ElectricityArea electricityArea = mapper.readValue(jsonString, ElectricityArea.class);
-        return electricityArea.zone().orElse("Post code " + postCode + " could not retrieve a zone code");
+        String precomputed = postCodeTable.zone(postCode);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        return electricityZoneCache.get(postCode, () -> zoneFlight.execute(postCode, () -> {
+            byte[] json = upstreamClient.get(elZoneUrl + postCode);
+            ElectricityArea electricityArea = jsonCodec.electricityAreaReader().readValue(json);
+            return electricityArea.zone().orElse("Post code " + postCode + " could not retrieve a zone code");
+        }));
     }
 
 
     public String getElectricityPrice(String timestamp, String areaCode) throws IOException {
-        String url = buildUrl(timestamp, areaCode);
-        String response = smhiService.readStringFromUrl(url);
-        ObjectMapper mapper = new ObjectMapper();
-        List<ElectricityPrice> prices = mapper.readValue(response, new TypeReference<>() {
-        });
-        Map<String, String> timePriceMap = new HashMap<>();
-        prices.forEach(p -> timePriceMap.put(p.time(), p.priceInSEK()));
 //        String isoTime = unixToISOTime(Long.parseLong(timestamp));
 //        return timePriceMap.get(isoTime);
-        return timePriceMap.get(timestamp);
+        OffsetDateTime time = OffsetDateTime.parse(timestamp);
+        return getElectricityPrices(time.toLocalDate(), areaCode).priceAt(time.toInstant().toEpochMilli());
+    }
+
+    /**
+     * All prices for the given day. Served from the price cache when the day has been seen before,
+     * and from the observation store when it was fetched before a restart.
+     */
+    public DayPriceTable getElectricityPrices(LocalDate day, String areaCode) throws IOException {
+        String url = buildUrl(day, areaCode);
+        return electricityPriceCache.get(day, areaCode, () -> priceFlight.execute(url, () -> loadPrices(day, areaCode, url)));
     }
+
+    /**
+     * Prices of a day in a historical range. Days before the latest days bypass the price
+     * cache, so a long range does not evict the days every current request needs; they are
+     * still read from the observation store once fetched.
+     */
+    public DayPriceTable getHistoricalPrices(LocalDate day, String areaCode) throws IOException {
+        if (!day.isBefore(latestDays().getFirst())) {
+            return getElectricityPrices(day, areaCode);
+        }
+        String url = buildUrl(day, areaCode);
+        return priceFlight.execute(url, () -> loadPrices(day, areaCode, url));
+    }
+
+    private DayPriceTable loadPrices(LocalDate day, String areaCode, String url) throws IOException {
+        DayPriceTable stored = observationStore.prices(day, areaCode);
+        if (stored != null) {
+            return stored;
+        }
+        byte[] response = upstreamClient.get(url);
+        List<ElectricityPrice> prices = jsonCodec.electricityPricesReader().readValue(response);
+        DayPriceTable table = DayPriceTable.of(prices);
+        observationStore.putPrices(day, areaCode, table);
+        return table;
+    }
+
+    /**
+     * Swedish dates covered by SMHI's latest-day period, which is the last 24 hours.
+     */
+    public List<LocalDate> latestDays() {
+        ZonedDateTime now = ZonedDateTime.now(ZoneId.of("Europe/Stockholm"));
+        LocalDate today = now.toLocalDate();
+        LocalDate dayBefore = now.minusHours(24).toLocalDate();
+        return today.equals(dayBefore) ? List.of(today) : List.of(dayBefore, today);
+    }
+
     public String unixToISOTime(long unixMillis) {
         return Instant.ofEpochMilli(unixMillis)
                 .atZone(ZoneId.of("Europe/Stockholm"))
                 .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
     }
-    private String buildUrl(String timestamp, String areaCode) {
+    private String buildUrl(LocalDate day, String areaCode) {
         return elPrice +
-                OffsetDateTime.parse(timestamp).getYear() +
+                day.getYear() +
                 "/" +
-                OffsetDateTime.parse(timestamp).format(DateTimeFormatter.ofPattern("MM-dd")) +
+                day.format(DateTimeFormatter.ofPattern("MM-dd")) +
                 "_SE" +
                 areaCode +
                 ".json";
@@ -0,0 +1,149 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Post code -> electricity zone (SE1..SE4) lookup. Zones are kept in a byte array indexed
+ * directly by the five digit post code, where 0 means unknown. The same layout is used on
+ * disk, so a miss is persisted by writing a single byte at the post code's offset.
+ * A seed resource with the same layout, given by {@code el.zone.seed} (for example
+ * {@code classpath:postcode-zones.bin}), pre-loads the table on a fresh instance. No seed is
+ * bundled, so by default the table starts from the snapshot alone.
+ */
+@Service
+public class ElectricityZoneCache {
+    private static final Logger log = LoggerFactory.getLogger(ElectricityZoneCache.class);
+    private static final int POST_CODES = 100_000;
+
+    @Value("${cache.dir}")
+    private Path cacheDir;
+    @Value("${el.zone.seed:}")
+    private String seedLocation;
+    @Autowired
+    ResourceLoader resourceLoader;
+
+    private final byte[] zones = new byte[POST_CODES];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final AtomicInteger known = new AtomicInteger();
+    private FileChannel snapshot;
+
+    @FunctionalInterface
+    public interface Loader {
+        String load() throws IOException;
+    }
+
+    @PostConstruct
+    void loadSnapshot() throws IOException {
+        boolean seeded = false;
+        if (!seedLocation.isBlank()) {
+            Resource seed = resourceLoader.getResource(seedLocation);
+            if (seed.exists()) {
+                try (InputStream inputStream = seed.getInputStream()) {
+                    merge(inputStream.readNBytes(POST_CODES));
+                }
+                seeded = true;
+            } else {
+                log.warn("Electricity zone seed {} does not exist", seedLocation);
+            }
+        }
+        Files.createDirectories(cacheDir);
+        Path file = cacheDir.resolve("zones.bin");
+        if (Files.exists(file)) {
+            merge(Files.readAllBytes(file));
+        }
+        snapshot = FileChannel.open(file, CREATE, READ, WRITE);
+        if (seeded) {
+            // Write the merged table back so the snapshot also contains the seed
+            snapshot.write(ByteBuffer.wrap(zones), 0);
+        }
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        snapshot.close();
+    }
+
+    /**
+     * @return the zone number for the post code, or whatever the loader returns if it is not cached
+     */
+    public String get(String postCode, Loader loader) throws IOException {
+        Integer key = GeocodeCache.toKey(postCode);
+        if (key == null) {
+            return loader.load();
+        }
+        byte zone = zones[key];
+        if (zone != 0) {
+            hits.increment();
+            return String.valueOf(zone);
+        }
+        misses.increment();
+        String loaded = loader.load();
+        if (loaded != null && loaded.length() == 1 && loaded.charAt(0) >= '1' && loaded.charAt(0) <= '4') {
+            synchronized (zones) {
+                // Another request may have stored the same post code meanwhile
+                if (zones[key] == 0) {
+                    known.incrementAndGet();
+                }
+                zones[key] = (byte) (loaded.charAt(0) - '0');
+            }
+            persist(key);
+        }
+        return loaded;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of post codes with a known zone
+     */
+    public int size() {
+        return known.get();
+    }
+
+    private void merge(byte[] table) {
+        for (int i = 0; i < table.length && i < POST_CODES; i++) {
+            if (table[i] != 0) {
+                if (zones[i] == 0) {
+                    known.incrementAndGet();
+                }
+                zones[i] = table[i];
+            }
+        }
+    }
+
+    private void persist(int key) {
+        try {
+            snapshot.write(ByteBuffer.wrap(zones, key, 1), key);
+        } catch (IOException e) {
+            log.warn("Could not persist electricity zone for post code {}", key, e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Structured fan-out of blocking upstream calls, one virtual thread per call. Forks are owned
+ * by the scope: the first fork that fails cancels all of its siblings and its exception is what
+ * every join reports, and closing the scope cancels and waits for anything still running.
+ * A fork may join another fork of the same scope to express a dependency.
+ * <p>
+ * Shaped after {@code StructuredTaskScope.ShutdownOnFailure}, which is still a preview API.
+ */
+public final class FanOut implements AutoCloseable {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final List<Future<?>> futures = new CopyOnWriteArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public final class Fork<T> {
+        private final Future<T> future;
+
+        private Fork(Future<T> future) {
+            this.future = future;
+        }
+
+        public T join() throws IOException {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                throw propagate(firstFailureOr(e.getCause()));
+            } catch (CancellationException e) {
+                throw propagate(firstFailureOr(e));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelAll();
+                throw new InterruptedIOException("Interrupted while waiting for an upstream call");
+            }
+        }
+    }
+
+    public <T> Fork<T> fork(Callable<T> task) {
+        Future<T> future = executor.submit(() -> {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                if (failure.compareAndSet(null, e)) {
+                    cancelAll();
+                }
+                throw e;
+            }
+        });
+        futures.add(future);
+        return new Fork<>(future);
+    }
+
+    @Override
+    public void close() {
+        cancelAll();
+        executor.close();
+    }
+
+    private void cancelAll() {
+        futures.forEach(future -> future.cancel(true));
+    }
+
+    private Throwable firstFailureOr(Throwable throwable) {
+        Throwable first = failure.get();
+        return first != null ? first : throwable;
+    }
+
+    private static IOException propagate(Throwable throwable) {
+        if (throwable instanceof IOException ioException) {
+            return ioException;
+        }
+        if (throwable instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        if (throwable instanceof Error error) {
+            throw error;
+        }
+        return new IOException(throwable);
+    }
+}
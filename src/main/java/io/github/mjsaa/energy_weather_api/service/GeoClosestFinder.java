@@ -2,26 +2,40 @@ package io.github.mjsaa.energy_weather_api.service;
 
 import io.github.mjsaa.energy_weather_api.data.Location;
 import io.github.mjsaa.energy_weather_api.data.Station;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.geom.Point;
 import org.springframework.stereotype.Service;
 
-import java.util.Comparator;
 import java.util.List;
 @Service
 public class GeoClosestFinder {
+    /**
+     * Closest station by great-circle distance. Scans the list, so prefer the
+     * {@link StationIndex} overload for a station set that is queried repeatedly.
+     */
     public Station getClosest(Location location, List<Station> stations) {
-        GeometryFactory gf = new GeometryFactory();
-        Point ref = gf.createPoint(new Coordinate(location.latitude(), location.longitude()));
+        Station closest = null;
+        double closestDistance = Double.POSITIVE_INFINITY;
+        for (Station station : stations) {
+            double distance = StationIndex.distanceKm(
+                    location.latitude(), location.longitude(), station.latitude(), station.longitude());
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                closest = station;
+            }
+        }
+        if (closest == null) {
+            throw new IllegalArgumentException("The location list is empty.");
+        }
+        return closest;
+    }
+
+    public Station getClosest(Location location, StationIndex stations) {
+        return stations.nearest(location);
+    }
 
-        return stations.stream().min(Comparator.comparingDouble(station -> {
-            Point point = gf.createPoint(new Coordinate(station.latitude(), station.longitude()));
-            return ref.distance(point);
-        })).orElseThrow(() -> new IllegalArgumentException("The location list is empty."));
-//        return locations.stream().min(Comparator.comparingDouble(loc -> {
-//            Point point = gf.createPoint(new Coordinate(loc.latitude(), loc.longitude()));
-//            return ref.distance(point);
-//        })).orElseThrow(() -> new IllegalArgumentException("The location list is empty."));
+    /**
+     * @return up to k stations ordered from nearest to farthest
+     */
+    public List<Station> getClosest(Location location, StationIndex stations, int k) {
+        return stations.nearest(location, k);
     }
 }
@@ -0,0 +1,131 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.Location;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Post code -> location cache. Kept in memory and backed by an append-only snapshot
+ * of fixed-width records (int post code, double latitude, double longitude) that is
+ * loaded at startup. A Swedish post code practically never moves, so entries never expire.
+ */
+@Service
+public class GeocodeCache {
+    private static final Logger log = LoggerFactory.getLogger(GeocodeCache.class);
+    private static final int RECORD_SIZE = Integer.BYTES + 2 * Double.BYTES;
+
+    @Value("${cache.dir}")
+    private Path cacheDir;
+
+    private final Map<Integer, Location> locations = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private FileChannel snapshot;
+
+    @FunctionalInterface
+    public interface Loader {
+        Location load() throws IOException;
+    }
+
+    @PostConstruct
+    void loadSnapshot() throws IOException {
+        Files.createDirectories(cacheDir);
+        Path file = cacheDir.resolve("geocode.bin");
+        if (Files.exists(file)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            while (buffer.remaining() >= RECORD_SIZE) {
+                locations.put(buffer.getInt(), new Location(buffer.getDouble(), buffer.getDouble()));
+            }
+            log.info("Loaded {} geocoded post codes from {}", locations.size(), file);
+        }
+        snapshot = FileChannel.open(file, CREATE, WRITE, APPEND);
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        snapshot.close();
+    }
+
+    public Location get(String postCode, Loader loader) throws IOException {
+        Integer key = toKey(postCode);
+        if (key == null) {
+            return loader.load();
+        }
+        Location location = locations.get(key);
+        if (location != null) {
+            hits.increment();
+            return location;
+        }
+        misses.increment();
+        location = loader.load();
+        if (locations.putIfAbsent(key, location) == null) {
+            append(key, location);
+        }
+        return location;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return locations.size();
+    }
+
+    private void append(int key, Location location) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE)
+                .putInt(key)
+                .putDouble(location.latitude())
+                .putDouble(location.longitude())
+                .flip();
+        try {
+            synchronized (snapshot) {
+                while (record.hasRemaining()) {
+                    snapshot.write(record);
+                }
+            }
+        } catch (IOException e) {
+            // The in-memory entry is still valid, only the warm start is lost
+            log.warn("Could not append post code {} to geocode snapshot", key, e);
+        }
+    }
+
+    /**
+     * @return the post code as an int, or null if it is not exactly five digits
+     */
+    static Integer toKey(String postCode) {
+        if (postCode == null || postCode.length() != 5) {
+            return null;
+        }
+        int key = 0;
+        for (int i = 0; i < 5; i++) {
+            char c = postCode.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            key = key * 10 + (c - '0');
+        }
+        return key;
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.github.mjsaa.energy_weather_api.data.ElectricityArea;
+import io.github.mjsaa.energy_weather_api.data.ElectricityPrice;
+import io.github.mjsaa.energy_weather_api.data.GoogleResponse;
+import io.github.mjsaa.energy_weather_api.data.StationResponse;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Pre-built Jackson readers shared by every service. They are derived from the
+ * application's ObjectMapper, the same one Spring MVC writes responses with, so the
+ * serializer and deserializer caches stay warm across requests.
+ */
+@Component
+public class JsonCodec {
+    private final ObjectMapper objectMapper;
+    private final ObjectReader stationResponseReader;
+    private final ObjectReader googleResponseReader;
+    private final ObjectReader electricityAreaReader;
+    private final ObjectReader electricityPricesReader;
+
+    public JsonCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.stationResponseReader = objectMapper.readerFor(StationResponse.class);
+        this.googleResponseReader = objectMapper.readerFor(GoogleResponse.class);
+        this.electricityAreaReader = objectMapper.readerFor(ElectricityArea.class);
+        this.electricityPricesReader = objectMapper.readerFor(new TypeReference<List<ElectricityPrice>>() {});
+    }
+
+    public ObjectMapper objectMapper() {
+        return objectMapper;
+    }
+
+    public ObjectReader stationResponseReader() {
+        return stationResponseReader;
+    }
+
+    public ObjectReader googleResponseReader() {
+        return googleResponseReader;
+    }
+
+    public ObjectReader electricityAreaReader() {
+        return electricityAreaReader;
+    }
+
+    public ObjectReader electricityPricesReader() {
+        return electricityPricesReader;
+    }
+}
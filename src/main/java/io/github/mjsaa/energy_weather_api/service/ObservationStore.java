@@ -0,0 +1,373 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.DayPriceTable;
+import io.github.mjsaa.energy_weather_api.data.TimeSeries;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Local store of everything fetched from SMHI and the price API, so a restarted instance
+ * starts with a warm dataset and unchanged data is never fetched twice.
+ * <p>
+ * Every (parameter, station) series has its own append-only segment file: a 16 byte header
+ * (long time of the last upstream check, long start of the last latest-day window) followed
+ * by 16 byte records (long epoch millis, double value) in time order. Only points newer than
+ * the last stored one are appended, so the segment grows into the station's history. Older
+ * points overwrite the stored value at the same time, since SMHI revises recent values as they
+ * pass quality control; older points that were never stored are dropped. A record torn by a
+ * crash during an append is cut off before the next append. Day
+ * price tables never change once published and are written once, as 24 byte records
+ * (long interval start, long interval end, double price). Both are read through
+ * memory-mapped files.
+ * <p>
+ * At most {@code observations.open.segments} segment files are kept open; the least recently
+ * used one is closed when another is opened.
+ */
+@Service
+public class ObservationStore {
+    private static final Logger log = LoggerFactory.getLogger(ObservationStore.class);
+    private static final int HEADER_SIZE = 16;
+    private static final int SERIES_RECORD_SIZE = 16;
+    private static final int PRICE_RECORD_SIZE = 24;
+
+    @Value("${cache.dir}")
+    private Path cacheDir;
+    @Value("${observations.open.segments:256}")
+    private int maxOpenSegments;
+
+    private Path seriesDir;
+    private Path pricesDir;
+    private final Map<String, Segment> segments = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Segment> eldest) {
+            if (size() <= maxOpenSegments) {
+                return false;
+            }
+            eldest.getValue().close();
+            return true;
+        }
+    };
+
+    /**
+     * @param series    the window served as the station's latest-day series
+     * @param checkedAt when the upstream was last asked for the series
+     */
+    public record StoredSeries(TimeSeries series, long checkedAt) {}
+
+    @PostConstruct
+    void init() throws IOException {
+        seriesDir = Files.createDirectories(cacheDir.resolve("observations"));
+        pricesDir = Files.createDirectories(cacheDir.resolve("prices"));
+    }
+
+    @PreDestroy
+    void close() {
+        synchronized (segments) {
+            segments.values().forEach(Segment::close);
+            segments.clear();
+        }
+    }
+
+    /**
+     * @return the latest-day window last stored for the series, or null if it was never stored
+     */
+    public StoredSeries series(String parameter, String station) {
+        try {
+            return withSegment(parameter, station, false, Segment::latestDay);
+        } catch (IOException e) {
+            log.warn("Could not read stored series {}/{}", parameter, station, e);
+            return null;
+        }
+    }
+
+    /**
+     * Appends the points of a freshly fetched latest-day series that are newer than the last
+     * stored one.
+     */
+    public void append(String parameter, String station, TimeSeries series, long checkedAt) {
+        try {
+            withSegment(parameter, station, true, segment -> {
+                segment.append(series, checkedAt);
+                return null;
+            });
+        } catch (IOException e) {
+            // The fetched series is still served, only the warm start is lost
+            log.warn("Could not append series {}/{} to the observation store", parameter, station, e);
+        }
+    }
+
+    /**
+     * Records that the upstream confirmed the stored series is unchanged.
+     */
+    public void checked(String parameter, String station, long checkedAt) {
+        try {
+            withSegment(parameter, station, false, segment -> {
+                segment.writeHeader(checkedAt, segment.windowStart());
+                return null;
+            });
+        } catch (IOException e) {
+            log.warn("Could not update stored series {}/{}", parameter, station, e);
+        }
+    }
+
+    /**
+     * @return the stored prices for the day and zone, or null if none were stored
+     */
+    public DayPriceTable prices(LocalDate day, String zone) {
+        Path file = pricesDir.resolve(priceFileName(day, zone));
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int size = (int) (channel.size() / PRICE_RECORD_SIZE);
+            if (size == 0) {
+                // An empty file holds no prices; the day may still be published
+                return null;
+            }
+            long[] starts = new long[size];
+            long[] ends = new long[size];
+            double[] prices = new double[size];
+            for (int i = 0; i < size; i++) {
+                starts[i] = mapped.getLong(i * PRICE_RECORD_SIZE);
+                ends[i] = mapped.getLong(i * PRICE_RECORD_SIZE + 8);
+                prices[i] = mapped.getDouble(i * PRICE_RECORD_SIZE + 16);
+            }
+            return new DayPriceTable(starts, ends, prices);
+        } catch (IOException e) {
+            log.warn("Could not read stored prices for {} in SE{}", day, zone, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the prices of a day. An empty table is not stored, since the day may still be
+     * published.
+     */
+    public void putPrices(LocalDate day, String zone, DayPriceTable table) {
+        if (table.size() == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(table.size() * PRICE_RECORD_SIZE);
+        for (int i = 0; i < table.size(); i++) {
+            buffer.putLong(table.intervalStarts()[i])
+                    .putLong(table.intervalEnds()[i])
+                    .putDouble(table.prices()[i]);
+        }
+        buffer.flip();
+        Path file = pricesDir.resolve(priceFileName(day, zone));
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, CREATE, TRUNCATE_EXISTING, WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not store prices for {} in SE{}", day, zone, e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SegmentOperation<T> {
+        T apply(Segment segment) throws IOException;
+    }
+
+    /**
+     * Runs the operation on the open segment of the series, holding the segment's monitor, so
+     * it cannot be closed underneath. A segment closed before the monitor was taken is opened
+     * again.
+     *
+     * @return the operation's result, or null if the segment does not exist and is not created
+     */
+    private <T> T withSegment(String parameter, String station, boolean create, SegmentOperation<T> operation)
+            throws IOException {
+        while (true) {
+            Segment segment = segment(parameter, station, create);
+            if (segment == null) {
+                return null;
+            }
+            synchronized (segment) {
+                if (segment.channel.isOpen()) {
+                    return operation.apply(segment);
+                }
+            }
+        }
+    }
+
+    private Segment segment(String parameter, String station, boolean create) throws IOException {
+        String name = parameter + "-" + station + ".bin";
+        Path file = seriesDir.resolve(name);
+        synchronized (segments) {
+            Segment segment = segments.get(name);
+            if (segment != null && segment.channel.isOpen()) {
+                return segment;
+            }
+            if (!create && !Files.exists(file)) {
+                return null;
+            }
+            segment = new Segment(FileChannel.open(file, CREATE, READ, WRITE));
+            segments.put(name, segment);
+            return segment;
+        }
+    }
+
+    private static String priceFileName(LocalDate day, String zone) {
+        return "SE" + zone + "-" + day + ".bin";
+    }
+
+    /**
+     * One open segment file. Callers hold the segment's monitor; reads go through a mapping
+     * that is renewed whenever the file has grown.
+     */
+    private static final class Segment {
+        private final FileChannel channel;
+        private volatile MappedByteBuffer mapped;
+
+        Segment(FileChannel channel) throws IOException {
+            this.channel = channel;
+            if (channel.size() < HEADER_SIZE) {
+                writeHeader(0, Long.MIN_VALUE);
+            }
+        }
+
+        StoredSeries latestDay() throws IOException {
+            MappedByteBuffer mapped = map();
+            long checkedAt = mapped.getLong(0);
+            long windowStart = mapped.getLong(8);
+            int count = (mapped.capacity() - HEADER_SIZE) / SERIES_RECORD_SIZE;
+            if (checkedAt == 0) {
+                return null;
+            }
+            int from = firstAtOrAfter(mapped, count, windowStart);
+            long[] timestamps = new long[count - from];
+            double[] values = new double[count - from];
+            for (int i = from; i < count; i++) {
+                timestamps[i - from] = mapped.getLong(HEADER_SIZE + i * SERIES_RECORD_SIZE);
+                values[i - from] = mapped.getDouble(HEADER_SIZE + i * SERIES_RECORD_SIZE + 8);
+            }
+            return new StoredSeries(new TimeSeries(timestamps, values), checkedAt);
+        }
+
+        void append(TimeSeries series, long checkedAt) throws IOException {
+            MappedByteBuffer mapped = map();
+            int count = (mapped.capacity() - HEADER_SIZE) / SERIES_RECORD_SIZE;
+            long size = mapped.capacity();
+            if (channel.size() != size) {
+                // A torn record from an interrupted append would misalign every later one
+                channel.truncate(size);
+            }
+            long last = count > 0 ? mapped.getLong(HEADER_SIZE + (count - 1) * SERIES_RECORD_SIZE) : Long.MIN_VALUE;
+
+            Integer[] order = new Integer[series.size()];
+            long windowStart = Long.MAX_VALUE;
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+                windowStart = Math.min(windowStart, series.timestamps()[i]);
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(series.timestamps()[a], series.timestamps()[b]));
+            ByteBuffer records = ByteBuffer.allocate(order.length * SERIES_RECORD_SIZE);
+            for (int i : order) {
+                long timestamp = series.timestamps()[i];
+                if (timestamp > last) {
+                    records.putLong(timestamp).putDouble(series.values()[i]);
+                    last = timestamp;
+                } else {
+                    revise(mapped, count, timestamp, series.values()[i]);
+                }
+            }
+            records.flip();
+            while (records.hasRemaining()) {
+                size += channel.write(records, size);
+            }
+            writeHeader(checkedAt, order.length == 0 ? Long.MAX_VALUE : windowStart);
+        }
+
+        /**
+         * Overwrites the value stored at the timestamp, if there is one and it differs.
+         */
+        private void revise(MappedByteBuffer mapped, int count, long timestamp, double value) throws IOException {
+            int index = firstAtOrAfter(mapped, count, timestamp);
+            if (index == count) {
+                return;
+            }
+            int offset = HEADER_SIZE + index * SERIES_RECORD_SIZE;
+            if (mapped.getLong(offset) != timestamp
+                    || Double.doubleToLongBits(mapped.getDouble(offset + 8)) == Double.doubleToLongBits(value)) {
+                return;
+            }
+            ByteBuffer record = ByteBuffer.allocate(Double.BYTES).putDouble(value).flip();
+            while (record.hasRemaining()) {
+                channel.write(record, offset + 8 + record.position());
+            }
+        }
+
+        void writeHeader(long checkedAt, long windowStart) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putLong(checkedAt).putLong(windowStart).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+
+        synchronized void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Could not close an observation segment", e);
+            }
+            mapped = null;
+        }
+
+        long windowStart() throws IOException {
+            return map().getLong(8);
+        }
+
+        private MappedByteBuffer map() throws IOException {
+            MappedByteBuffer mapped = this.mapped;
+            // Only whole records are mapped, in case an append is in progress
+            long size = channel.size();
+            long whole = HEADER_SIZE + (size - HEADER_SIZE) / SERIES_RECORD_SIZE * SERIES_RECORD_SIZE;
+            if (mapped == null || mapped.capacity() != whole) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, whole);
+                this.mapped = mapped;
+            }
+            return mapped;
+        }
+
+        private static int firstAtOrAfter(ByteBuffer mapped, int count, long timestamp) {
+            int lo = 0;
+            int hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (mapped.getLong(HEADER_SIZE + mid * SERIES_RECORD_SIZE) < timestamp) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-stage timers of the combine pipeline, as {@code pipeline.stage} tagged with the stage
+ * and whether it succeeded. Together with the upstream timers they show where a slow
+ * request spent its time.
+ */
+@Component
+public class PipelineMetrics {
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    // stage/outcome -> timer, registered on first use
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    public interface Stage<T> {
+        T run() throws IOException;
+    }
+
+    public <T> T time(String stage, Stage<T> work) throws IOException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            T result = work.run();
+            outcome = "success";
+            return result;
+        } finally {
+            sample.stop(timer(stage, outcome));
+        }
+    }
+
+    private Timer timer(String stage, String outcome) {
+        return timers.computeIfAbsent(stage + "/" + outcome, key -> Timer.builder("pipeline.stage")
+                .tags("stage", stage, "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.DayPriceTable;
+import io.github.mjsaa.energy_weather_api.data.Location;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Everything a single request needs to know about a post code: its location, its
+ * electricity zone and the day price tables for that zone. Resolved once per request
+ * and then joined against every observation in memory.
+ */
+public class PostCodeContext {
+    private static final ZoneId STOCKHOLM = ZoneId.of("Europe/Stockholm");
+
+    private final String postCode;
+    private final Location location;
+    private final String electricityArea;
+    private final ElectricityService electricityService;
+    private final List<DayPriceTable> priceTables = new ArrayList<>(2);
+    private final Set<LocalDate> loadedDays = new HashSet<>();
+    private final Set<LocalDate> missingDays = new HashSet<>();
+
+    public PostCodeContext(String postCode,
+                           Location location,
+                           String electricityArea,
+                           ElectricityService electricityService) {
+        this.postCode = postCode;
+        this.location = location;
+        this.electricityArea = electricityArea;
+        this.electricityService = electricityService;
+    }
+
+    public String postCode() {
+        return postCode;
+    }
+
+    public Location location() {
+        return location;
+    }
+
+    public String electricityArea() {
+        return electricityArea;
+    }
+
+    /**
+     * Adds the price table of a day that was fetched up front.
+     */
+    public void addPrices(LocalDate day, DayPriceTable prices) {
+        priceTables.add(prices);
+        loadedDays.add(day);
+    }
+
+    /**
+     * Marks a day that has no published prices, so it is not fetched again.
+     */
+    public void addMissingPrices(LocalDate day) {
+        missingDays.add(day);
+    }
+
+    /**
+     * Price of the interval containing the given time, or null if the day has no published
+     * prices. A request spans a day or two, so the tables are scanned directly; a day that is
+     * not loaded yet is fetched once, and a time its table does not cover has no price.
+     */
+    public String getElectricityPrice(long epochMillis) throws IOException {
+        for (DayPriceTable prices : priceTables) {
+            if (prices.covers(epochMillis)) {
+                return prices.priceAt(epochMillis);
+            }
+        }
+        LocalDate day = Instant.ofEpochMilli(epochMillis).atZone(STOCKHOLM).toLocalDate();
+        if (missingDays.contains(day) || loadedDays.contains(day)) {
+            return null;
+        }
+        DayPriceTable prices;
+        try {
+            prices = electricityService.getElectricityPrices(day, electricityArea);
+        } catch (FileNotFoundException e) {
+            missingDays.add(day);
+            return null;
+        }
+        addPrices(day, prices);
+        return prices.priceAt(epochMillis);
+    }
+}
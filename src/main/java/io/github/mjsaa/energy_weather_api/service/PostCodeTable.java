@@ -0,0 +1,270 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.Location;
+import io.github.mjsaa.energy_weather_api.data.Station;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Precomputed post code -> (location, zone, nearest station per parameter) table. The file is
+ * built offline by {@link PostCodeTableBuilder} and memory-mapped at startup, so a post code in
+ * the table needs no geocode, zone or station lookup at all.
+ * <p>
+ * Layout: a 64 byte header followed by one 32 byte record per five digit post code, at offset
+ * {@code 64 + postCode * 32}. The header holds a magic number, the station parameters and,
+ * per parameter, the fingerprint of the station catalog its column was computed from. A record
+ * holds latitude and longitude as doubles, one station key per parameter as an int, the zone
+ * (0 for unknown) and a flag byte telling whether the location is set.
+ * <p>
+ * Station columns are recomputed from the stored locations whenever the catalog of their
+ * parameter changes. The recompute runs in the background on a copy of the table, which is
+ * written to a new file and swapped in when done; until then the old columns are served, as
+ * long as their stations are still in the catalog.
+ */
+@Service
+public class PostCodeTable {
+    private static final Logger log = LoggerFactory.getLogger(PostCodeTable.class);
+    private static final int MAGIC = 0x50435431;
+    private static final int POST_CODES = 100_000;
+    private static final int MAX_PARAMETERS = 3;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 32;
+    private static final int STATIONS_OFFSET = 16;
+    private static final int ZONE_OFFSET = 28;
+    private static final int FLAGS_OFFSET = 29;
+    private static final byte HAS_LOCATION = 1;
+    private static final long FILE_SIZE = HEADER_SIZE + (long) POST_CODES * RECORD_SIZE;
+
+    @Value("${postcode.table:${cache.dir}/postcodes.bin}")
+    private Path file;
+
+    private volatile MappedByteBuffer table;
+    private final ExecutorService recomputes = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("postcode-table-recompute").daemon().factory());
+
+    public record Row(String postCode, Location location, String zone) {}
+
+    @PostConstruct
+    void map() throws IOException {
+        if (!Files.exists(file)) {
+            log.info("No precomputed post code table at {}, resolving post codes live", file);
+            return;
+        }
+        MappedByteBuffer mapped = open(file);
+        if (mapped == null) {
+            log.warn("Ignoring {}: not a post code table", file);
+            return;
+        }
+        table = mapped;
+    }
+
+    @PreDestroy
+    void close() {
+        recomputes.shutdownNow();
+    }
+
+    /**
+     * @return the precomputed location of the post code, or null if it is not in the table
+     */
+    public Location location(String postCode) {
+        MappedByteBuffer table = this.table;
+        Integer key = GeocodeCache.toKey(postCode);
+        if (table == null || key == null) {
+            return null;
+        }
+        int offset = offset(key);
+        if ((table.get(offset + FLAGS_OFFSET) & HAS_LOCATION) == 0) {
+            return null;
+        }
+        return new Location(table.getDouble(offset), table.getDouble(offset + 8));
+    }
+
+    /**
+     * @return the precomputed zone number of the post code, or null if it is not in the table
+     */
+    public String zone(String postCode) {
+        MappedByteBuffer table = this.table;
+        Integer key = GeocodeCache.toKey(postCode);
+        if (table == null || key == null) {
+            return null;
+        }
+        byte zone = table.get(offset(key) + ZONE_OFFSET);
+        return zone == 0 ? null : String.valueOf(zone);
+    }
+
+    /**
+     * @return the precomputed nearest station of the post code, or null if it is not in the
+     * table or no longer in the index
+     */
+    public Station station(String postCode, String parameter, StationIndex index) {
+        MappedByteBuffer table = this.table;
+        Integer key = GeocodeCache.toKey(postCode);
+        if (table == null || key == null) {
+            return null;
+        }
+        int column = column(table, parameter);
+        if (column < 0) {
+            return null;
+        }
+        // A column from an older catalog is served until its recompute is swapped in
+        int station = table.getInt(offset(key) + STATIONS_OFFSET + column * 4);
+        return station == 0 ? null : index.station(Integer.toString(station));
+    }
+
+    /**
+     * Schedules a recompute of the station column of the parameter from the stored locations,
+     * unless it was already computed from this catalog. Returns at once; the table is swapped
+     * when the recompute is done.
+     */
+    public void stationsChanged(String parameter, StationIndex index) {
+        if (table == null || index.size() == 0) {
+            return;
+        }
+        recomputes.execute(() -> recompute(parameter, index));
+    }
+
+    private synchronized void recompute(String parameter, StationIndex index) {
+        MappedByteBuffer current = this.table;
+        if (current == null) {
+            return;
+        }
+        int column = column(current, parameter);
+        if (column < 0 || current.getLong(fingerprintOffset(column)) == index.fingerprint()) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) FILE_SIZE);
+        buffer.put(0, current, 0, (int) FILE_SIZE);
+        writeStations(buffer, column, index);
+        buffer.putLong(fingerprintOffset(column), index.fingerprint());
+        try {
+            table = write(buffer);
+            log.info("Recomputed nearest stations for parameter {} in the post code table", parameter);
+        } catch (IOException e) {
+            log.warn("Could not recompute nearest stations for parameter {} in the post code table", parameter, e);
+        }
+    }
+
+    /**
+     * Replaces the table with the rows and maps the new file. Post codes without a row are
+     * left empty.
+     *
+     * @param indexes station catalog per parameter, in column order; at most three are used
+     */
+    public synchronized void rebuild(List<Row> rows, Map<String, StationIndex> indexes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) FILE_SIZE);
+        buffer.putInt(0, MAGIC);
+        List<Map.Entry<String, StationIndex>> columns = indexes.entrySet().stream().limit(MAX_PARAMETERS).toList();
+        buffer.putInt(4, columns.size());
+        for (int column = 0; column < columns.size(); column++) {
+            buffer.putInt(8 + column * 12, Integer.parseInt(columns.get(column).getKey()));
+            buffer.putLong(fingerprintOffset(column), columns.get(column).getValue().fingerprint());
+        }
+        for (Row row : rows) {
+            Integer key = GeocodeCache.toKey(row.postCode());
+            if (key == null) {
+                continue;
+            }
+            int offset = offset(key);
+            if (row.location() != null) {
+                buffer.putDouble(offset, row.location().latitude());
+                buffer.putDouble(offset + 8, row.location().longitude());
+                buffer.put(offset + FLAGS_OFFSET, HAS_LOCATION);
+            }
+            if (row.zone() != null && row.zone().length() == 1 && row.zone().charAt(0) >= '1' && row.zone().charAt(0) <= '4') {
+                buffer.put(offset + ZONE_OFFSET, (byte) (row.zone().charAt(0) - '0'));
+            }
+        }
+        for (int column = 0; column < columns.size(); column++) {
+            writeStations(buffer, column, columns.get(column).getValue());
+        }
+        table = write(buffer);
+    }
+
+    /**
+     * Writes the table to a new file, replaces the table file with it and maps it. Mappings of
+     * the old file stay valid, so readers can go on using them until they see the new one.
+     */
+    private MappedByteBuffer write(ByteBuffer buffer) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            buffer.rewind();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return open(file);
+    }
+
+    private static void writeStations(ByteBuffer table, int column, StationIndex index) {
+        for (int key = 0; key < POST_CODES; key++) {
+            int offset = offset(key);
+            int station = 0;
+            if ((table.get(offset + FLAGS_OFFSET) & HAS_LOCATION) != 0 && index.size() > 0) {
+                Location location = new Location(table.getDouble(offset), table.getDouble(offset + 8));
+                station = stationNumber(index.nearest(location).key());
+            }
+            table.putInt(offset + STATIONS_OFFSET + column * 4, station);
+        }
+    }
+
+    private static int stationNumber(String key) {
+        try {
+            return Integer.parseInt(key);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static int column(ByteBuffer table, String parameter) {
+        int count = table.getInt(4);
+        for (int column = 0; column < count; column++) {
+            if (Integer.toString(table.getInt(8 + column * 12)).equals(parameter)) {
+                return column;
+            }
+        }
+        return -1;
+    }
+
+    private static int fingerprintOffset(int column) {
+        return 12 + column * 12;
+    }
+
+    private static int offset(int key) {
+        return HEADER_SIZE + key * RECORD_SIZE;
+    }
+
+    private static MappedByteBuffer open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            if (channel.size() != FILE_SIZE) {
+                return null;
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, FILE_SIZE);
+            return mapped.getInt(0) == MAGIC ? mapped : null;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.Location;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Offline build step for the {@link PostCodeTable}. Run the application once with the
+ * {@code postcode-table} profile and a list of post codes, one per line, in
+ * {@code postcode.table.source}:
+ * <pre>
+ * java -jar energy-weather-api.jar --spring.profiles.active=postcode-table --postcode.table.source=file:postcodes.txt
+ * </pre>
+ * The profile starts without the web server and the command exits once the table is written,
+ * with a non-zero status if it could not be built.
+ * <p>
+ * Every post code is resolved through the regular geocode and zone lookups, so post codes that
+ * are already cached cost no upstream call. At most {@code postcode.table.concurrency} post
+ * codes are resolved at a time, which should not exceed the upstream client's per-host limit.
+ * Post codes that fail are retried up to {@code postcode.table.attempts} times in total; those
+ * that still fail, and those the upstream does not know, are left out and keep resolving live.
+ */
+@Component
+@Profile("postcode-table")
+public class PostCodeTableBuilder implements ApplicationRunner {
+    private static final Logger log = LoggerFactory.getLogger(PostCodeTableBuilder.class);
+
+    @Value("${postcode.table.source}")
+    private String source;
+    @Value("${smhi.stations.parameters}")
+    private List<String> parameters;
+    @Value("${postcode.table.concurrency:16}")
+    private int concurrency;
+    @Value("${postcode.table.attempts:3}")
+    private int attempts;
+    @Value("${postcode.table.retry.delay:5s}")
+    private Duration retryDelay;
+    @Autowired
+    ConfigurableApplicationContext applicationContext;
+    @Autowired
+    ResourceLoader resourceLoader;
+    @Autowired
+    PostPositionService postPositionService;
+    @Autowired
+    ElectricityService electricityService;
+    @Autowired
+    StationCatalogService stationCatalogService;
+    @Autowired
+    PostCodeTable postCodeTable;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        int exitCode = 0;
+        try {
+            build();
+        } catch (Exception e) {
+            log.error("Could not build the post code table", e);
+            exitCode = 1;
+        }
+        int status = exitCode;
+        System.exit(SpringApplication.exit(applicationContext, () -> status));
+    }
+
+    private void build() throws Exception {
+        List<String> pending = readPostCodes(resourceLoader.getResource(source));
+        List<PostCodeTable.Row> rows = new ArrayList<>(pending.size());
+        List<String> unresolved = new ArrayList<>();
+        for (int attempt = 1; attempt <= attempts && !pending.isEmpty(); attempt++) {
+            if (attempt > 1) {
+                log.info("Retrying {} post codes in {}", pending.size(), retryDelay);
+                Thread.sleep(retryDelay.toMillis());
+            }
+            pending = resolveAll(pending, rows, unresolved);
+        }
+        for (String postCode : pending) {
+            log.warn("Could not resolve post code {} in {} attempts", postCode, attempts);
+        }
+        unresolved.addAll(pending);
+
+        Map<String, StationIndex> indexes = new LinkedHashMap<>();
+        for (String parameter : parameters) {
+            indexes.put(parameter, stationCatalogService.getIndex(parameter));
+        }
+        postCodeTable.rebuild(rows, indexes);
+        log.info("Built post code table with {} post codes, {} could not be resolved", rows.size(), unresolved.size());
+    }
+
+    /**
+     * Resolves the post codes into rows, at most {@code concurrency} at a time. Post codes
+     * the upstream does not know go to {@code unresolved}.
+     *
+     * @return the post codes that failed and may succeed on a retry
+     */
+    private List<String> resolveAll(List<String> postCodes, List<PostCodeTable.Row> rows, List<String> unresolved)
+            throws InterruptedException {
+        Semaphore permits = new Semaphore(concurrency);
+        List<String> retry = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<PostCodeTable.Row>> futures = new ArrayList<>(postCodes.size());
+            for (String postCode : postCodes) {
+                permits.acquire();
+                futures.add(executor.submit(() -> {
+                    try {
+                        return resolve(postCode);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    rows.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    // A post code the upstream does not know will not resolve on a retry either
+                    if (e.getCause() instanceof FileNotFoundException) {
+                        log.warn("Could not resolve post code {}: {}", postCodes.get(i), e.getCause().toString());
+                        unresolved.add(postCodes.get(i));
+                    } else {
+                        retry.add(postCodes.get(i));
+                    }
+                }
+            }
+        }
+        return retry;
+    }
+
+    private PostCodeTable.Row resolve(String postCode) throws IOException {
+        Location location = postPositionService.getLocation(postCode);
+        String zone = electricityService.getElectricityArea(postCode);
+        return new PostCodeTable.Row(postCode, location, zone);
+    }
+
+    private static List<String> readPostCodes(Resource resource) throws IOException {
+        List<String> postCodes = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String postCode = line.replace(" ", "").trim();
+                if (GeocodeCache.toKey(postCode) != null) {
+                    postCodes.add(postCode);
+                }
+            }
+        }
+        return postCodes;
+    }
+}
@@ -1,12 +1,12 @@
 package io.github.mjsaa.energy_weather_api.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.cdimascio.dotenv.Dotenv;
+import io.github.mjsaa.energy_weather_api.client.UpstreamClient;
 import io.github.mjsaa.energy_weather_api.data.GoogleResponse;
 import io.github.mjsaa.energy_weather_api.data.Location;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import io.github.mjsaa.energy_weather_api.smhi.utils.SMHIService;
 
 import java.io.IOException;
 
@@ -14,18 +14,39 @@ import java.io.IOException;
 public class PostPositionService {
     // Talks to Google API to return a location (lat, lon) given a post code
     @Autowired
-    SMHIService smhiService;
-    public Location getLocation(String postCode) throws IOException {
-        // call API
+    UpstreamClient upstreamClient;
+    @Autowired
+    GeocodeCache geocodeCache;
+    @Autowired
+    JsonCodec jsonCodec;
+    @Autowired
+    PostCodeTable postCodeTable;
+    private final SingleFlight<String, Location> geocodeFlight = new SingleFlight<>();
+    private String googleApiKey;
+    private String googleApiUrl;
+
+    @PostConstruct
+    void readApiConfig() {
         // Do not use in production environment. Use for example AWS Secret Manager instead.
-        Dotenv dotenv = Dotenv.load();
-        String googleApiKey = dotenv.get("GOOGLE_API_KEY");
-        String googleApiUrl = dotenv.get("GOOGLE_API_URL")
+        Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+        googleApiKey = dotenv.get("GOOGLE_API_KEY");
+        googleApiUrl = dotenv.get("GOOGLE_API_URL");
+    }
+
+    public Location getLocation(String postCode) throws IOException {
+        Location precomputed = postCodeTable.location(postCode);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        return geocodeCache.get(postCode, () -> geocodeFlight.execute(postCode, () -> geocode(postCode)));
+    }
+
+    private Location geocode(String postCode) throws IOException {
+        String url = googleApiUrl
                 + "?address=" + postCode + "%20Sweden"
                 + "&key=" + googleApiKey;
-        var json = smhiService.readStringFromUrl(googleApiUrl);
-        ObjectMapper mapper = new ObjectMapper();
-        GoogleResponse response = mapper.readValue(json, GoogleResponse.class);
+        byte[] json = upstreamClient.get(url);
+        GoogleResponse response = jsonCodec.googleResponseReader().readValue(json);
         return response.results().getFirst().geometry().location();
     }
 }
@@ -0,0 +1,79 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.FileNotFoundException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps the hot working set warm, so the first request after an upstream update does not pay
+ * for the upstream call. The most requested SMHI series are revalidated right after SMHI's
+ * hourly update, and tomorrow's prices for every zone are fetched once they are published,
+ * around 13:00 Swedish time.
+ */
+@Service
+public class PrefetchService {
+    private static final Logger log = LoggerFactory.getLogger(PrefetchService.class);
+    private static final List<String> ZONES = List.of("1", "2", "3", "4");
+
+    @Value("${smhi.prefetch.size:200}")
+    private int prefetchSize;
+    @Autowired
+    SeriesCache seriesCache;
+    @Autowired
+    ElectricityService electricityService;
+
+    @Scheduled(cron = "${smhi.update.cron}", zone = "Europe/Stockholm")
+    public void prefetchSeries() {
+        List<SeriesCache.Key> keys = seriesCache.hottest(prefetchSize);
+        seriesCache.decay();
+        int failed = 0;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>(keys.size());
+            for (SeriesCache.Key key : keys) {
+                futures.add(executor.submit(() -> seriesCache.refresh(key)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failed++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        log.debug("Prefetched {} SMHI series, {} failed", keys.size() - failed, failed);
+    }
+
+    /**
+     * Runs a few times after the day-ahead publication; once a zone's prices are cached the
+     * later runs cost nothing.
+     */
+    @Scheduled(cron = "${el.price.prefetch.cron}", zone = "Europe/Stockholm")
+    public void prefetchTomorrowPrices() {
+        LocalDate tomorrow = LocalDate.now(ZoneId.of("Europe/Stockholm")).plusDays(1);
+        for (String zone : ZONES) {
+            try {
+                electricityService.getElectricityPrices(tomorrow, zone);
+            } catch (FileNotFoundException e) {
+                log.debug("Prices for {} in SE{} are not published yet", tomorrow, zone);
+            } catch (Exception e) {
+                log.warn("Could not prefetch prices for {} in SE{}", tomorrow, zone, e);
+            }
+        }
+    }
+}
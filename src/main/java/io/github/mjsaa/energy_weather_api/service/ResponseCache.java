@@ -0,0 +1,67 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.VersionedResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fully built combined responses per post code, kept until the upstream data behind them is
+ * expected to change. Least recently used responses are evicted first.
+ */
+@Service
+public class ResponseCache {
+    @Value("${combined.cache.max.entries:10000}")
+    private int maxEntries;
+
+    private final Map<String, VersionedResponse> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, VersionedResponse> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @return the cached response for the post code, or null if there is none or it is stale
+     */
+    public VersionedResponse get(String postCode) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            VersionedResponse entry = entries.get(postCode);
+            if (entry != null && entry.freshUntil().toEpochMilli() > now) {
+                hits.increment();
+                return entry;
+            }
+            if (entry != null) {
+                entries.remove(postCode);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(String postCode, VersionedResponse response) {
+        synchronized (entries) {
+            entries.put(postCode, response);
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.CombinedWeatherElectricityData;
+
+import java.io.IOException;
+
+/**
+ * Receives a combined response piece by piece while it is being produced: the electricity
+ * area first, then one call per row.
+ */
+public interface ResponseSink {
+    void electricityArea(String electricityArea) throws IOException;
+
+    void row(CombinedWeatherElectricityData row) throws IOException;
+}
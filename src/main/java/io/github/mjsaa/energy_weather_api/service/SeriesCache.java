@@ -0,0 +1,183 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.client.UpstreamClient;
+import io.github.mjsaa.energy_weather_api.data.TimeSeries;
+import io.github.mjsaa.energy_weather_api.smhi.utils.SMHISeriesParser;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.support.CronExpression;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parsed SMHI latest-day series keyed by (parameter, station). SMHI refreshes latest-day
+ * data once an hour, so a series is fresh until the next update given by
+ * {@code smhi.update.cron}. A stale series is revalidated with a conditional GET and only
+ * downloaded and parsed again if it changed.
+ * <p>
+ * Every fetched series is also written to the {@link ObservationStore}, and a series that is
+ * not in memory is read from there first, so after a restart anything checked since the last
+ * SMHI update is served without an upstream call.
+ * <p>
+ * Requests per series are counted, so {@link PrefetchService} can refresh the most requested
+ * ones right after each update, before any request needs them.
+ */
+@Service
+public class SeriesCache {
+    private static final ZoneId STOCKHOLM = ZoneId.of("Europe/Stockholm");
+
+    @Value("${smhi.update.cron}")
+    private String updateCron;
+    @Value("${smhi.series.cache.max.entries:4096}")
+    private int maxEntries;
+    @Autowired
+    UpstreamClient upstreamClient;
+    @Autowired
+    ObservationStore observationStore;
+
+    private CronExpression updates;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Key, LongAdder> requests = new ConcurrentHashMap<>();
+    private final SingleFlight<Key, Entry> flight = new SingleFlight<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+
+    /**
+     * @param url the latest-day data.json of the station and parameter
+     */
+    public record Key(String parameter, String station, String url) {}
+
+    // Validators are kept without the body; the parsed series is all that is needed
+    private record Entry(TimeSeries series, UpstreamClient.Body validators, long freshUntil) {}
+
+    @PostConstruct
+    void init() {
+        updates = CronExpression.parse(updateCron);
+    }
+
+    public TimeSeries get(Key key) throws IOException {
+        requests.computeIfAbsent(key, k -> new LongAdder()).increment();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = fromStore(key);
+        }
+        if (entry != null && entry.freshUntil() > System.currentTimeMillis()) {
+            hits.increment();
+            return entry.series();
+        }
+        misses.increment();
+        return refresh(key);
+    }
+
+    /**
+     * Revalidates the series with the upstream, whether or not it is still fresh.
+     */
+    public TimeSeries refresh(Key key) throws IOException {
+        return flight.execute(key, () -> {
+            Entry previous = entries.get(key);
+            UpstreamClient.Body body = upstreamClient.get(key.url(), previous == null ? null : previous.validators());
+            long now = System.currentTimeMillis();
+            TimeSeries series;
+            if (previous != null && body == previous.validators()) {
+                notModified.increment();
+                series = previous.series();
+                observationStore.checked(key.parameter(), key.station(), now);
+            } else {
+                series = SMHISeriesParser.parse(body.bytes());
+                observationStore.append(key.parameter(), key.station(), series, now);
+            }
+            Entry entry = new Entry(series, body.withoutBytes(), nextUpdate().toEpochMilli());
+            if (entries.put(key, entry) == null && entries.size() > maxEntries) {
+                evictColdest();
+            }
+            return entry;
+        }).series();
+    }
+
+    /**
+     * @return when SMHI is next expected to have published new latest-day data
+     */
+    public Instant nextUpdate() {
+        return updates.next(ZonedDateTime.now(STOCKHOLM)).toInstant();
+    }
+
+    /**
+     * @return up to {@code limit} series, most requested first
+     */
+    public List<Key> hottest(int limit) {
+        return requests.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<Key, LongAdder> request) -> request.getValue().sum()).reversed())
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    /**
+     * Halves every request count and forgets series nobody asks for any more, so the hot set
+     * follows current demand.
+     */
+    public void decay() {
+        requests.entrySet().removeIf(request -> {
+            long count = request.getValue().sumThenReset();
+            request.getValue().add(count / 2);
+            return count / 2 == 0;
+        });
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long notModifiedCount() {
+        return notModified.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Loads a stored series into memory. It is fresh if it was checked after the last SMHI
+     * update; stored series carry no validators, so a stale one is downloaded again in full.
+     */
+    private Entry fromStore(Key key) {
+        ObservationStore.StoredSeries stored = observationStore.series(key.parameter(), key.station());
+        if (stored == null) {
+            return null;
+        }
+        ZonedDateTime checkedAt = Instant.ofEpochMilli(stored.checkedAt()).atZone(STOCKHOLM);
+        Entry entry = new Entry(stored.series(), null, updates.next(checkedAt).toInstant().toEpochMilli());
+        Entry previous = entries.putIfAbsent(key, entry);
+        if (previous != null) {
+            return previous;
+        }
+        if (entries.size() > maxEntries) {
+            evictColdest();
+        }
+        return entry;
+    }
+
+    private void evictColdest() {
+        entries.keySet().stream()
+                .min(Comparator.comparingLong(key -> {
+                    LongAdder count = requests.get(key);
+                    return count == null ? 0 : count.sum();
+                }))
+                .ifPresent(entries::remove);
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent loads of the same upstream resource. The first caller for a key runs
+ * the load, and every caller that arrives while it is in flight waits for and shares its
+ * result, including the parsed value. Nothing is kept once the load completes; caching is
+ * left to the caller.
+ */
+public final class SingleFlight<K, V> {
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder shared = new LongAdder();
+
+    @FunctionalInterface
+    public interface Loader<V> {
+        V load() throws IOException;
+    }
+
+    public V execute(K key, Loader<V> loader) throws IOException {
+        while (true) {
+            CompletableFuture<V> flight = new CompletableFuture<>();
+            CompletableFuture<V> leader = inFlight.putIfAbsent(key, flight);
+            if (leader == null) {
+                return lead(key, flight, loader);
+            }
+            shared.increment();
+            try {
+                return leader.get();
+            } catch (ExecutionException e) {
+                // A leader that was cancelled by its own request says nothing about the resource
+                if (e.getCause() instanceof InterruptedIOException) {
+                    continue;
+                }
+                throw propagate(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a shared upstream call");
+            }
+        }
+    }
+
+    /**
+     * @return how many calls were served by another caller's in-flight load
+     */
+    public long sharedCount() {
+        return shared.sum();
+    }
+
+    private V lead(K key, CompletableFuture<V> flight, Loader<V> loader) throws IOException {
+        try {
+            V value = loader.load();
+            flight.complete(value);
+            return value;
+        } catch (Throwable throwable) {
+            flight.completeExceptionally(throwable);
+            throw throwable;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private static IOException propagate(Throwable throwable) {
+        if (throwable instanceof IOException ioException) {
+            return ioException;
+        }
+        if (throwable instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        if (throwable instanceof Error error) {
+            throw error;
+        }
+        return new IOException(throwable);
+    }
+}
@@ -0,0 +1,126 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.Station;
+import io.github.mjsaa.energy_weather_api.data.StationResponse;
+import io.github.mjsaa.energy_weather_api.smhi.utils.SMHIService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-memory SMHI station catalog per parameter, held as a {@link StationIndex}. Seeded from bundled station snapshots
+ * at startup and downloaded for the configured parameters in the background, right after
+ * startup and then periodically, so startup never waits for a catalog download. Only one
+ * download per parameter is in flight at a time. Only active stations are kept.
+ */
+@Service
+public class StationCatalogService {
+    private static final Logger log = LoggerFactory.getLogger(StationCatalogService.class);
+
+    @Value("${smhi.stations.parameters}")
+    private List<String> parameters;
+    @Value("${smhi.stations.seed}")
+    private String seedLocation;
+    @Autowired
+    SMHIService smhiService;
+    @Autowired
+    ResourcePatternResolver resourcePatternResolver;
+    @Autowired
+    JsonCodec jsonCodec;
+    @Autowired
+    PostCodeTable postCodeTable;
+
+    private final Map<String, StationIndex> catalog = new ConcurrentHashMap<>();
+    private final SingleFlight<String, StationIndex> downloads = new SingleFlight<>();
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("station-catalog-", 0).factory());
+
+    @PostConstruct
+    void load() throws IOException {
+        for (Resource resource : resourcePatternResolver.getResources(seedLocation)) {
+            try (InputStream inputStream = resource.getInputStream()) {
+                StationResponse response = jsonCodec.stationResponseReader().readValue(inputStream);
+                if (response.key() != null) {
+                    publish(response.key(), indexActive(response.stations()));
+                }
+            }
+        }
+        // Each parameter is downloaded on its own, so a request for an unseeded parameter
+        // joins the download of that parameter only
+        for (String parameter : parameters) {
+            executor.execute(() -> refresh(parameter));
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        executor.shutdownNow();
+    }
+
+    @Scheduled(initialDelayString = "${smhi.stations.refresh}", fixedDelayString = "${smhi.stations.refresh}")
+    public void refresh() {
+        for (String parameter : parameters) {
+            refresh(parameter);
+        }
+    }
+
+    /**
+     * Active stations for the parameter. A parameter without a catalog yet, such as a
+     * configured one without a seed right after startup, waits for the download already in
+     * flight; only a parameter that is neither configured nor seeded starts one on the
+     * request path.
+     */
+    public List<Station> getStations(String parameterKey) throws IOException {
+        return getIndex(parameterKey).stations();
+    }
+
+    /**
+     * Spatial index over the active stations for the parameter.
+     */
+    public StationIndex getIndex(String parameterKey) throws IOException {
+        StationIndex index = catalog.get(parameterKey);
+        return index != null ? index : download(parameterKey);
+    }
+
+    private void refresh(String parameter) {
+        try {
+            download(parameter);
+        } catch (Exception e) {
+            // Keep serving the previous catalog, if any
+            log.warn("Could not refresh SMHI station catalog for parameter {}", parameter, e);
+        }
+    }
+
+    private StationIndex download(String parameter) throws IOException {
+        return downloads.execute(parameter, () -> {
+            StationIndex index = indexActive(smhiService.getStations(parameter));
+            publish(parameter, index);
+            return index;
+        });
+    }
+
+    private void publish(String parameter, StationIndex index) {
+        catalog.put(parameter, index);
+        // Keeps the precomputed nearest stations in step with the catalog
+        postCodeTable.stationsChanged(parameter, index);
+    }
+
+    private static StationIndex indexActive(List<Station> stations) {
+        return StationIndex.of(stations.stream().filter(Station::active).toList());
+    }
+}
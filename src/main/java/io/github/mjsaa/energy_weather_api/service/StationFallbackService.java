@@ -0,0 +1,191 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.Location;
+import io.github.mjsaa.energy_weather_api.data.Station;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches data from the nearest station that has any. Candidates are taken from the station
+ * index in distance order and tried a few at a time in parallel, preferring the nearest one
+ * that answers. Stations that have no recent data for a parameter are remembered for a while
+ * and skipped, so later requests go straight to a live station.
+ * <p>
+ * {@code stations.fallback} counts fetches served by another station than the nearest,
+ * {@code stations.marked.dead} stations found without data and {@code stations.dead} the
+ * stations currently skipped.
+ */
+@Service
+public class StationFallbackService {
+    @Value("${smhi.stations.candidates:8}")
+    private int candidates;
+    @Value("${smhi.stations.parallel:2}")
+    private int parallel;
+    @Value("${smhi.stations.dead.ttl:6h}")
+    private Duration deadTtl;
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    // parameter/station -> epoch millis until which the station is assumed to have no data
+    private final Map<String, Long> deadUntil = new ConcurrentHashMap<>();
+    // name/parameter -> counter, so the hot path does not look the counter up in the registry
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    public interface StationFetch<T> {
+        /**
+         * @throws FileNotFoundException if the station has no data for the parameter
+         */
+        T fetch(Station station) throws IOException;
+    }
+
+    @PostConstruct
+    void registerMetrics() {
+        Gauge.builder("stations.dead", deadUntil, Map::size).register(meterRegistry);
+    }
+
+    public <T> T fetchNearest(Location location, StationIndex index, String parameter, StationFetch<T> fetch)
+            throws IOException {
+        Set<String> tried = new HashSet<>();
+        Station first = null;
+        int k = candidates;
+        while (true) {
+            List<Station> nearest = index.nearest(location, k);
+            if (first == null && !nearest.isEmpty()) {
+                first = nearest.getFirst();
+            }
+            List<Station> untried = new ArrayList<>();
+            for (Station station : nearest) {
+                if (tried.add(station.key()) && !isDead(parameter, station)) {
+                    untried.add(station);
+                }
+            }
+            for (int from = 0; from < untried.size(); from += parallel) {
+                Hit<T> hit = tryBatch(untried.subList(from, Math.min(from + parallel, untried.size())), parameter, fetch);
+                if (hit != null) {
+                    if (hit.station() != first) {
+                        counter("stations.fallback", parameter).increment();
+                    }
+                    return hit.value();
+                }
+            }
+            if (nearest.size() < k) {
+                throw new FileNotFoundException("No station has recent data for parameter " + parameter);
+            }
+            k *= 2;
+        }
+    }
+
+    /**
+     * @return the station {@link #fetchNearest} will try first, or null if all are known dead
+     */
+    public Station nearestLive(Location location, StationIndex index, String parameter) {
+        int k = candidates;
+        while (true) {
+            List<Station> nearest = index.nearest(location, k);
+            for (Station station : nearest) {
+                if (!isDead(parameter, station)) {
+                    return station;
+                }
+            }
+            if (nearest.size() < k) {
+                return null;
+            }
+            k *= 2;
+        }
+    }
+
+    public boolean isDead(String parameter, Station station) {
+        Long until = deadUntil.get(parameter + "/" + station.key());
+        return until != null && until > System.currentTimeMillis();
+    }
+
+    public int deadCount() {
+        return deadUntil.size();
+    }
+
+    /**
+     * Fetches the whole batch concurrently and returns the result of the first station, in batch
+     * order, that has data. Returns null if none of them has any. Any other failure is only
+     * thrown if no station of the batch answered.
+     */
+    private <T> Hit<T> tryBatch(List<Station> batch, String parameter, StationFetch<T> fetch) throws IOException {
+        if (batch.size() == 1) {
+            try {
+                return new Hit<>(batch.getFirst(), fetch.fetch(batch.getFirst()));
+            } catch (FileNotFoundException e) {
+                markDead(parameter, batch.getFirst());
+                return null;
+            }
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<T>> futures = new ArrayList<>(batch.size());
+            for (Station station : batch) {
+                futures.add(executor.submit(() -> fetch.fetch(station)));
+            }
+            try {
+                ExecutionException failure = null;
+                for (int i = 0; i < batch.size(); i++) {
+                    try {
+                        return new Hit<>(batch.get(i), futures.get(i).get());
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof FileNotFoundException) {
+                            markDead(parameter, batch.get(i));
+                        } else if (failure == null) {
+                            failure = e;
+                        }
+                    }
+                }
+                if (failure == null) {
+                    return null;
+                }
+                if (failure.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                if (failure.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new IOException(failure.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while fetching station data", e);
+            } finally {
+                // Farther stations are not needed once a nearer one has answered
+                futures.forEach(future -> future.cancel(true));
+            }
+        }
+    }
+
+    public void markDead(String parameter, Station station) {
+        counter("stations.marked.dead", parameter).increment();
+        long now = System.currentTimeMillis();
+        deadUntil.put(parameter + "/" + station.key(), now + deadTtl.toMillis());
+        deadUntil.values().removeIf(until -> until <= now);
+    }
+
+    private Counter counter(String name, String parameter) {
+        return counters.computeIfAbsent(name + "/" + parameter,
+                key -> Counter.builder(name).tags("parameter", parameter).register(meterRegistry));
+    }
+
+    private record Hit<T>(Station station, T value) {}
+}
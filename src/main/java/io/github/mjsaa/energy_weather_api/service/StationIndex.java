@@ -0,0 +1,297 @@
+package io.github.mjsaa.energy_weather_api.service;
+
+import io.github.mjsaa.energy_weather_api.data.Location;
+import io.github.mjsaa.energy_weather_api.data.Station;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable k-d tree over a station set. Stations are stored as unit vectors on the sphere,
+ * where the straight-line (chord) distance between two points grows monotonically with their
+ * great-circle distance. Nearest neighbours by chord distance are therefore the nearest
+ * neighbours on the earth's surface, and queries only compare primitive coordinates.
+ */
+public final class StationIndex {
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+
+    private final List<Station> stations;
+    // Tree in implicit layout: the node of the range [lo, hi) is at (lo + hi) / 2 and splits
+    // on axis depth % 3. Arrays are in tree order, not in the order of the station list.
+    private final Station[] nodes;
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    private final Map<String, Station> byKey;
+    private final long fingerprint;
+
+    private StationIndex(List<Station> stations) {
+        this.stations = stations;
+        int size = stations.size();
+        byKey = new HashMap<>(size * 2);
+        // FNV-1a over keys and positions in catalog order
+        long hash = 0xcbf29ce484222325L;
+        for (Station station : stations) {
+            byKey.put(station.key(), station);
+            hash = (hash ^ station.key().hashCode()) * 0x100000001b3L;
+            hash = (hash ^ Double.doubleToLongBits(station.latitude())) * 0x100000001b3L;
+            hash = (hash ^ Double.doubleToLongBits(station.longitude())) * 0x100000001b3L;
+        }
+        fingerprint = hash;
+        nodes = stations.toArray(new Station[0]);
+        x = new double[size];
+        y = new double[size];
+        z = new double[size];
+        for (int i = 0; i < size; i++) {
+            double lat = Math.toRadians(nodes[i].latitude());
+            double lon = Math.toRadians(nodes[i].longitude());
+            x[i] = Math.cos(lat) * Math.cos(lon);
+            y[i] = Math.cos(lat) * Math.sin(lon);
+            z[i] = Math.sin(lat);
+        }
+        build(0, size, 0);
+    }
+
+    public static StationIndex of(List<Station> stations) {
+        return new StationIndex(List.copyOf(stations));
+    }
+
+    /**
+     * @return the stations this index was built from, in their original order
+     */
+    public List<Station> stations() {
+        return stations;
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * @return the station with the key, or null if it is not in this index
+     */
+    public Station station(String key) {
+        return byKey.get(key);
+    }
+
+    /**
+     * Identifies the station set: indexes built from the same stations, in the same order and
+     * at the same positions, have the same fingerprint.
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    public Station nearest(Location location) {
+        if (nodes.length == 0) {
+            throw new IllegalArgumentException("The location list is empty.");
+        }
+        Query query = new Query(location, 1);
+        search(query, 0, nodes.length, 0);
+        return nodes[query.indices[0]];
+    }
+
+    /**
+     * @return up to k stations ordered from nearest to farthest
+     */
+    public List<Station> nearest(Location location, int k) {
+        int limit = Math.min(k, nodes.length);
+        if (limit <= 0) {
+            return List.of();
+        }
+        Query query = new Query(location, limit);
+        search(query, 0, nodes.length, 0);
+        // The heap holds the k nearest with the farthest on top; drain it back to front
+        Station[] ordered = new Station[query.count];
+        for (int i = query.count - 1; i >= 0; i--) {
+            ordered[i] = nodes[query.indices[0]];
+            query.pop();
+        }
+        return new ArrayList<>(List.of(ordered));
+    }
+
+    /**
+     * Great-circle distance in kilometres using the haversine formula.
+     */
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, depth % 3);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    /**
+     * Quickselect: partitions [left, right] so that the element at k is in its sorted position on the axis.
+     */
+    private void select(int left, int right, int k, int axis) {
+        while (left < right) {
+            double pivot = coordinate((left + right) >>> 1, axis);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (coordinate(i, axis) < pivot) i++;
+                while (coordinate(j, axis) > pivot) j--;
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void search(Query query, int lo, int hi, int depth) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double dx = x[mid] - query.x;
+        double dy = y[mid] - query.y;
+        double dz = z[mid] - query.z;
+        query.offer(mid, dx * dx + dy * dy + dz * dz);
+
+        int axis = depth % 3;
+        double diff = query.coordinate(axis) - coordinate(mid, axis);
+        if (diff < 0) {
+            search(query, lo, mid, depth + 1);
+            if (diff * diff < query.worst()) {
+                search(query, mid + 1, hi, depth + 1);
+            }
+        } else {
+            search(query, mid + 1, hi, depth + 1);
+            if (diff * diff < query.worst()) {
+                search(query, lo, mid, depth + 1);
+            }
+        }
+    }
+
+    private double coordinate(int i, int axis) {
+        return switch (axis) {
+            case 0 -> x[i];
+            case 1 -> y[i];
+            default -> z[i];
+        };
+    }
+
+    private void swap(int i, int j) {
+        Station station = nodes[i];
+        nodes[i] = nodes[j];
+        nodes[j] = station;
+        double t = x[i];
+        x[i] = x[j];
+        x[j] = t;
+        t = y[i];
+        y[i] = y[j];
+        y[j] = t;
+        t = z[i];
+        z[i] = z[j];
+        z[j] = t;
+    }
+
+    /**
+     * Query point and a bounded max-heap of the best candidates found so far.
+     */
+    private static final class Query {
+        final double x;
+        final double y;
+        final double z;
+        final int[] indices;
+        final double[] distances;
+        int count;
+
+        Query(Location location, int k) {
+            double lat = Math.toRadians(location.latitude());
+            double lon = Math.toRadians(location.longitude());
+            x = Math.cos(lat) * Math.cos(lon);
+            y = Math.cos(lat) * Math.sin(lon);
+            z = Math.sin(lat);
+            indices = new int[k];
+            distances = new double[k];
+        }
+
+        double coordinate(int axis) {
+            return switch (axis) {
+                case 0 -> x;
+                case 1 -> y;
+                default -> z;
+            };
+        }
+
+        double worst() {
+            return count < indices.length ? Double.POSITIVE_INFINITY : distances[0];
+        }
+
+        void offer(int index, double distance) {
+            if (count < indices.length) {
+                int i = count++;
+                indices[i] = index;
+                distances[i] = distance;
+                siftUp(i);
+            } else if (distance < distances[0]) {
+                indices[0] = index;
+                distances[0] = distance;
+                siftDown(0);
+            }
+        }
+
+        void pop() {
+            count--;
+            indices[0] = indices[count];
+            distances[0] = distances[count];
+            siftDown(0);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances[parent] >= distances[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int left = 2 * i + 1;
+                int largest = i;
+                if (left < count && distances[left] > distances[largest]) largest = left;
+                if (left + 1 < count && distances[left + 1] > distances[largest]) largest = left + 1;
+                if (largest == i) {
+                    return;
+                }
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int index = indices[i];
+            indices[i] = indices[j];
+            indices[j] = index;
+            double distance = distances[i];
+            distances[i] = distances[j];
+            distances[j] = distance;
+        }
+    }
+}
@@ -1,12 +1,7 @@
 package io.github.mjsaa.energy_weather_api.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.mjsaa.energy_weather_api.data.*;
 import io.github.mjsaa.energy_weather_api.smhi.utils.SMHIService;
-import org.json.JSONArray;
-import org.json.JSONObject;
-import org.shredzone.commons.suncalc.SunTimes;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -14,156 +9,290 @@ import org.springframework.stereotype.Service;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.time.Instant;
-import java.time.OffsetDateTime;
 import java.time.ZoneId;
-import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class WeatherService {
-    private static final String SMHI_TEMP_PARAMETER = "39";
-    private static final String SMHI_WIND_PARAMETER = "4";
-    private static final String SMHI_CLOUDINESS_PARAMETER = "16";
-    @Autowired
-    SMHIService smhiService;
+    public static final String SMHI_TEMP_PARAMETER = "39";
+    public static final String SMHI_WIND_PARAMETER = "4";
+    public static final String SMHI_CLOUDINESS_PARAMETER = "16";
+    private static final long HOUR_MILLIS = 3_600_000L;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+    // The corrected archive ends about three months back, latest-months covers about four
+    private static final long ARCHIVE_LAG_MILLIS = 90 * DAY_MILLIS;
+    private static final long LATEST_MONTHS_MILLIS = 120 * DAY_MILLIS;
+    private static final DateTimeFormatter ISO_WITH_OFFSET = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd'T'HH:mm:ssXXX")
+            .withZone(ZoneId.of("Europe/Stockholm"));
+    // About a year of hours
+    private static final int HOURLY_ISO_STRINGS_MAX = 10_000;
+    private static final Map<Long, String> HOURLY_ISO_STRINGS = new ConcurrentHashMap<>();
     @Autowired
     GeoClosestFinder geoClosestFinder;
     @Autowired
     PostPositionService postPositionService;
     @Autowired
     ElectricityService electricityService;
+    @Autowired
+    StationCatalogService stationCatalogService;
+    @Autowired
+    StationFallbackService stationFallbackService;
+    @Autowired
+    DaylightCalculator daylightCalculator;
+    @Autowired
+    PostCodeTable postCodeTable;
+    @Autowired
+    SeriesCache seriesCache;
+    @Autowired
+    SMHIService smhiService;
     @Value("${smhi.opendata.api.url}")
     private String metObsAPI;
 
 
     public WeatherSeries getWeatherData(String postNumber) throws IOException {
-        Map<String, String> tempMap = indexByTimestamp(getDataJson(postNumber, SMHI_TEMP_PARAMETER));
-        Map<String, String> windSpeedMap = indexByTimestamp(getDataJson(postNumber, SMHI_WIND_PARAMETER));
-        Map<String, String> cloudinessMap = indexByTimestamp(getDataJson(postNumber, SMHI_CLOUDINESS_PARAMETER));
-
-        Set<String> allTimestamps = new TreeSet<>();
-        allTimestamps.addAll(tempMap.keySet());
-        allTimestamps.addAll(windSpeedMap.keySet());
-        allTimestamps.addAll(cloudinessMap.keySet());
-        JSONArray result = allTimestamps.stream()
-                .map(ts -> new JSONObject()
-                        .put("date", convertToIsoWithOffset(ts))
-                        .put("temperature", tempMap.get(ts))
-                        .put("windSpeed", windSpeedMap.get(ts))
-                        .put("cloudiness", cloudinessMap.get(ts)))
-                .reduce(new JSONArray(), JSONArray::put, (a, b) -> a);
-        ObjectMapper mapper = new ObjectMapper();
-       List<WeatherObservation> weatherObservations = mapper.readValue(result.toString(), new TypeReference<>() {});
-        return new WeatherSeries(weatherObservations);
+        try (FanOut fanOut = new FanOut()) {
+            Location location = postPositionService.getLocation(postNumber);
+            FanOut.Fork<TimeSeries> temperature = fanOut.fork(() -> getSeries(postNumber, location, SMHI_TEMP_PARAMETER));
+            FanOut.Fork<TimeSeries> windSpeed = fanOut.fork(() -> getSeries(postNumber, location, SMHI_WIND_PARAMETER));
+            FanOut.Fork<TimeSeries> cloudiness = fanOut.fork(() -> getSeries(postNumber, location, SMHI_CLOUDINESS_PARAMETER));
+            return new WeatherSeries(toObservations(temperature.join(), windSpeed.join(), cloudiness.join()));
+        }
     }
     public static String convertToIsoWithOffset(String ts) {
-        long millis = Long.parseLong(ts);
-
-        Instant instant = Instant.ofEpochMilli(millis);
-
-        // Use Europe/Stockholm (or any TZ you want)
-        ZoneId zone = ZoneId.of("Europe/Stockholm");
-
-        ZonedDateTime zdt = instant.atZone(zone);
-
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssXXX");
-        return zdt.format(formatter);
-    }
-    public List<CombinedWeatherElectricityData> getCombinedData(String postCode) throws IOException {
-        Map<String, String> tempMap = indexByTimestamp(getDataJson(postCode, SMHI_TEMP_PARAMETER));
-        Map<String, String> windSpeedMap = indexByTimestamp(getDataJson(postCode, SMHI_WIND_PARAMETER));
-        Map<String, String> cloudinessMap = indexByTimestamp(getDataJson(postCode, SMHI_CLOUDINESS_PARAMETER));
-
-        Set<String> allTimestamps = new TreeSet<>();
-        allTimestamps.addAll(tempMap.keySet());
-        allTimestamps.addAll(windSpeedMap.keySet());
-        allTimestamps.addAll(cloudinessMap.keySet());
-        JSONArray result = allTimestamps.stream()
-                .map(ts -> new JSONObject()
-                        .put("date", convertToIsoWithOffset(ts))
-                        .put("temperature", tempMap.get(ts))
-                        .put("windSpeed", windSpeedMap.get(ts))
-                        .put("cloudiness", cloudinessMap.get(ts)))
-                .reduce(new JSONArray(), JSONArray::put, (a, b) -> a);
-        ObjectMapper mapper = new ObjectMapper();
-        List<WeatherObservation> weatherObservations = mapper.readValue(result.toString(), new TypeReference<>() {});
+        return convertToIsoWithOffset(Long.parseLong(ts));
+    }
+    public static String convertToIsoWithOffset(long millis) {
+        if (millis % HOUR_MILLIS != 0) {
+            return ISO_WITH_OFFSET.format(Instant.ofEpochMilli(millis));
+        }
+        // SMHI observations are hourly, so a small cache of formatted hours covers nearly all calls
+        String formatted = HOURLY_ISO_STRINGS.get(millis);
+        if (formatted == null) {
+            formatted = ISO_WITH_OFFSET.format(Instant.ofEpochMilli(millis));
+            if (HOURLY_ISO_STRINGS.size() >= HOURLY_ISO_STRINGS_MAX) {
+                HOURLY_ISO_STRINGS.clear();
+            }
+            HOURLY_ISO_STRINGS.put(millis, formatted);
+        }
+        return formatted;
+    }
+    /**
+     * Joins the three SMHI series of a request and matches every observation against the
+     * already resolved post code context.
+     */
+    public List<CombinedWeatherElectricityData> getCombinedData(PostCodeContext context,
+                                                                TimeSeries temperature,
+                                                                TimeSeries windSpeed,
+                                                                TimeSeries cloudiness) throws IOException {
         List<CombinedWeatherElectricityData> data = new ArrayList<>();
-        weatherObservations.forEach(observation -> {
+        forEachCombined(context, temperature, windSpeed, cloudiness, data::add);
+        return data;
+    }
+
+    @FunctionalInterface
+    public interface RowConsumer {
+        void accept(CombinedWeatherElectricityData row) throws IOException;
+    }
+
+    /**
+     * Same join as {@link #getCombinedData(PostCodeContext, TimeSeries, TimeSeries, TimeSeries)},
+     * but hands every row to the consumer as soon as it is joined.
+     */
+    public void forEachCombined(PostCodeContext context,
+                                TimeSeries temperature,
+                                TimeSeries windSpeed,
+                                TimeSeries cloudiness,
+                                RowConsumer consumer) throws IOException {
+        forEachCombined(context, WeatherColumns.join(temperature, windSpeed, cloudiness), 0, Long.MAX_VALUE, consumer);
+    }
+
+    /**
+     * Joins the rows of already joined columns from {@code fromRow} up to the first row at or
+     * after {@code untilMillis}, so a long range can be joined piece by piece.
+     *
+     * @return the first row that was not joined
+     */
+    public int forEachCombined(PostCodeContext context,
+                               WeatherColumns columns,
+                               int fromRow,
+                               long untilMillis,
+                               RowConsumer consumer) throws IOException {
+        Location location = context.location();
+        int row = fromRow;
+        for (; row < columns.size() && columns.timestamps()[row] < untilMillis; row++) {
+            WeatherObservation observation = toObservation(columns, row);
+            consumer.accept(new CombinedWeatherElectricityData(
+                    observation,
+                    context.getElectricityPrice(columns.timestamps()[row]),
+                    daylightCalculator.isSunUp(columns.timestamps()[row], location)
+            ));
+        }
+        return row;
+    }
+
+    private List<WeatherObservation> toObservations(TimeSeries temperature,
+                                                    TimeSeries windSpeed,
+                                                    TimeSeries cloudiness) {
+        WeatherColumns columns = WeatherColumns.join(temperature, windSpeed, cloudiness);
+        List<WeatherObservation> observations = new ArrayList<>(columns.size());
+        for (int row = 0; row < columns.size(); row++) {
+            observations.add(toObservation(columns, row));
+        }
+        return observations;
+    }
+
+    /**
+     * A missing temperature or wind speed is 0 and a missing cloudiness is null.
+     */
+    private static WeatherObservation toObservation(WeatherColumns columns, int row) {
+        double temperature = columns.temperature()[row];
+        double windSpeed = columns.windSpeed()[row];
+        return new WeatherObservation(
+                convertToIsoWithOffset(columns.timestamps()[row]),
+                Double.isNaN(temperature) ? 0 : temperature,
+                Double.isNaN(windSpeed) ? 0 : windSpeed,
+                formatValue(columns.cloudiness()[row]));
+    }
+
+    private static String formatValue(double value) {
+        if (Double.isNaN(value)) {
+            return null;
+        }
+        return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    public TimeSeries getSeries(String postCode, String SMHIParameter) throws IOException {
+        return getSeries(postCode, postPositionService.getLocation(postCode), SMHIParameter);
+    }
+
+    /**
+     * Same as {@link #getSeries(Location, String)}, but tries the post code's precomputed
+     * nearest station first.
+     */
+    public TimeSeries getSeries(String postCode, Location point, String SMHIParameter) throws IOException {
+        StationIndex index = stationCatalogService.getIndex(SMHIParameter);
+        Station precomputed = precomputedStation(postCode, index, SMHIParameter);
+        if (precomputed != null) {
             try {
-                data.add(new CombinedWeatherElectricityData(
-                        observation,
-                        electricityService.getElectricityPrice(
-                                observation.date(),
-                                electricityService.getElectricityArea(postCode)),
-                        isSunUp(OffsetDateTime.parse(observation.date()).toInstant(),
-                                postPositionService.getLocation(postCode))
-                        ));
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+                return fetchSeries(SMHIParameter, precomputed);
+            } catch (FileNotFoundException e) {
+                stationFallbackService.markDead(SMHIParameter, precomputed);
             }
-        });
-        return data;
+        }
+        return getSeries(point, SMHIParameter);
+    }
+    public TimeSeries getSeries(Location point, String SMHIParameter) throws IOException {
+        StationIndex index = stationCatalogService.getIndex(SMHIParameter);
+        return stationFallbackService.fetchNearest(point, index, SMHIParameter,
+                station -> fetchSeries(SMHIParameter, station));
     }
 
-    private Map<String, String> indexByTimestamp(JSONObject jsonObject) {
-        JSONArray array = jsonObject.getJSONArray("value");
-        return IntStream.range(0, array.length()).mapToObj(array::getJSONObject).collect(
-                Collectors.toMap(
-                        entry -> String.valueOf(entry.getLong("date")),
-                        entry -> entry.getString("value")
-                )
-        );
-    }
-    public JSONObject getDataJson(String postCode, String SMHIParameter) throws IOException {
-        List<Station> stations = smhiService.getStations(SMHIParameter);
-        Location point = postPositionService.getLocation(postCode); // a coordination within the post code
-        Station closestStation = geoClosestFinder.getClosest(point, stations); // closest station location to the point
-        String url = metObsAPI
-                + "/version/latest/parameter/"
-                + SMHIParameter
-                + "/station/"
-                + closestStation.key() +
-                "/period/latest-day/data.json";
+    /**
+     * Observations in [from, to) from the nearest station that has any in the range, taken
+     * from the corrected archive, the latest months and, for a range reaching into the last
+     * day, the latest-day series. Where periods overlap the corrected archive wins.
+     */
+    public TimeSeries getHistory(Location point, String SMHIParameter, long from, long to) throws IOException {
+        StationIndex index = stationCatalogService.getIndex(SMHIParameter);
+        // Tracked apart from latest-day: a station without an archive may still have recent data
+        return stationFallbackService.fetchNearest(point, index, SMHIParameter + "/history",
+                station -> fetchHistory(SMHIParameter, station, from, to));
+    }
+
+    private TimeSeries fetchHistory(String SMHIParameter, Station station, long from, long to) throws IOException {
+        long now = System.currentTimeMillis();
+        List<TimeSeries> periods = new ArrayList<>(3);
+        if (from < now - ARCHIVE_LAG_MILLIS) {
+            addPeriod(periods, () -> smhiService.getData(SMHIParameter, station.key(), "corrected-archive", from, to));
+        }
+        if (to > now - LATEST_MONTHS_MILLIS) {
+            addPeriod(periods, () -> smhiService.getData(SMHIParameter, station.key(), "latest-months", from, to));
+        }
+        if (to > now - DAY_MILLIS) {
+            addPeriod(periods, () -> fetchSeries(SMHIParameter, station));
+        }
+        TimeSeries series = concat(periods, from, to);
+        if (series.size() == 0) {
+            // Such as a station that opened after the range; the next nearest may cover it
+            throw new FileNotFoundException("Station " + station.key() + " has no data for parameter "
+                    + SMHIParameter + " in the range");
+        }
+        return series;
+    }
+
+    private interface PeriodFetch {
+        TimeSeries fetch() throws IOException;
+    }
+
+    private static void addPeriod(List<TimeSeries> periods, PeriodFetch fetch) throws IOException {
         try {
-            String temperatureJson = smhiService.readStringFromUrl(url);
-            return new JSONObject(temperatureJson);
-        } catch (FileNotFoundException exception) {
-            stations.remove(closestStation);
-            return getDataJson(stations, postCode, SMHIParameter);
+            periods.add(fetch.fetch());
+        } catch (FileNotFoundException e) {
+            // The station does not have this period; the others may still cover the range
         }
     }
-    public JSONObject getDataJson(List<Station> stations, String postCode, String SMHIParameter) throws IOException {
 
-        Location point = postPositionService.getLocation(postCode); // a coordination within the post code
-        Station closestStation = geoClosestFinder.getClosest(point, stations); // closest station location to the point
-        String url = metObsAPI
+    private static TimeSeries concat(List<TimeSeries> periods, long from, long to) {
+        int size = 0;
+        for (TimeSeries period : periods) {
+            size += period.size();
+        }
+        long[] timestamps = new long[size];
+        double[] values = new double[size];
+        int count = 0;
+        for (TimeSeries period : periods) {
+            for (int i = 0; i < period.size(); i++) {
+                long timestamp = period.timestamps()[i];
+                if (timestamp >= from && timestamp < to) {
+                    timestamps[count] = timestamp;
+                    values[count] = period.values()[i];
+                    count++;
+                }
+            }
+        }
+        return new TimeSeries(Arrays.copyOf(timestamps, count), Arrays.copyOf(values, count));
+    }
+
+    private TimeSeries fetchSeries(String SMHIParameter, Station station) throws IOException {
+        return seriesCache.get(new SeriesCache.Key(SMHIParameter, station.key(), latestDayUrl(SMHIParameter, station)));
+    }
+
+    /**
+     * Identifies the series {@link #getSeries(Location, String)} will fetch for a location, so
+     * that locations sharing a nearest live station can share one fetch.
+     */
+    public String seriesKey(Location point, String SMHIParameter) throws IOException {
+        StationIndex index = stationCatalogService.getIndex(SMHIParameter);
+        Station station = stationFallbackService.nearestLive(point, index, SMHIParameter);
+        return SMHIParameter + "/" + (station == null ? "none" : station.key());
+    }
+
+    /**
+     * {@link #seriesKey(Location, String)} for the series {@link #getSeries(String, Location, String)} will fetch.
+     */
+    public String seriesKey(String postCode, Location point, String SMHIParameter) throws IOException {
+        Station precomputed = precomputedStation(postCode, stationCatalogService.getIndex(SMHIParameter), SMHIParameter);
+        return precomputed != null ? SMHIParameter + "/" + precomputed.key() : seriesKey(point, SMHIParameter);
+    }
+
+    private Station precomputedStation(String postCode, StationIndex index, String SMHIParameter) {
+        Station station = postCodeTable.station(postCode, SMHIParameter, index);
+        return station == null || stationFallbackService.isDead(SMHIParameter, station) ? null : station;
+    }
+
+    private String latestDayUrl(String SMHIParameter, Station station) {
+        return metObsAPI
                 + "/version/latest/parameter/"
                 + SMHIParameter
                 + "/station/"
-                + closestStation.key() +
+                + station.key() +
                 "/period/latest-day/data.json";
-        try {
-            String temperatureJson = smhiService.readStringFromUrl(url);
-            return new JSONObject(temperatureJson);
-        } catch (FileNotFoundException exception) {
-            stations.remove(closestStation);
-            return getDataJson(stations, postCode, SMHIParameter);
-        }
     }
 
     public boolean isSunUp(Instant instant, Location location) {
-        SunTimes times = SunTimes.compute()
-                .on(instant.atZone(ZoneId.of("CET")).toLocalDate())
-                .latitude(location.latitude())
-                .longitude(location.longitude())
-                .execute();
-
-        Instant sunrise = Objects.requireNonNull(times.getRise()).toInstant();
-        Instant sunset = Objects.requireNonNull(times.getSet()).toInstant();
-
-        return instant.isAfter(sunrise) && instant.isBefore(sunset);
+        return daylightCalculator.isSunUp(instant, location);
     }
-}
\ No newline at end of file
+}
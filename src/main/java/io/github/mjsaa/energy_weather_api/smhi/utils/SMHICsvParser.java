@@ -0,0 +1,159 @@
+package io.github.mjsaa.energy_weather_api.smhi.utils;
+
+import io.github.mjsaa.energy_weather_api.data.TimeSeries;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Streaming parser for the SMHI metobs {@code data.csv} payload of the longer periods
+ * ({@code latest-months}, {@code corrected-archive}). The corrected archive of a station can
+ * span decades, so the body is read line by line into one reusable buffer and only rows
+ * inside the requested range are kept. Rows are in time order, so reading stops at the first
+ * row after the range.
+ * <p>
+ * The payload starts with station and parameter metadata; the data follows a header line
+ * starting with {@code Datum;Tid (UTC)}, one row per observation:
+ * {@code 2024-01-31;06:00:00;-3.4;G}. Values are in UTC.
+ */
+public final class SMHICsvParser {
+    private static final long DAY_MILLIS = 86_400_000L;
+
+    private SMHICsvParser() {
+    }
+
+    /**
+     * @param from first epoch millis to keep, inclusive
+     * @param to   last epoch millis to keep, exclusive
+     */
+    public static TimeSeries parse(InputStream body, long from, long to) throws IOException {
+        LineReader in = new LineReader(body);
+        // Long lines are cut; only the first columns matter
+        char[] line = new char[256];
+        boolean data = false;
+        long[] timestamps = new long[64];
+        double[] values = new double[64];
+        int size = 0;
+        int length;
+        while ((length = in.readLine(line)) >= 0) {
+            if (!data) {
+                data = startsWith(line, length, "Datum;");
+                continue;
+            }
+            long timestamp = timestamp(line, length);
+            if (timestamp == Long.MIN_VALUE || timestamp < from) {
+                continue;
+            }
+            if (timestamp >= to) {
+                break;
+            }
+            int valueStart = 20;
+            int valueEnd = valueStart;
+            while (valueEnd < length && line[valueEnd] != ';') {
+                valueEnd++;
+            }
+            double value = SMHISeriesParser.parseDecimal(line, valueStart, valueEnd - valueStart);
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
+        }
+        return new TimeSeries(Arrays.copyOf(timestamps, size), Arrays.copyOf(values, size));
+    }
+
+    /**
+     * @return epoch millis of a row starting with {@code yyyy-MM-dd;HH:mm:ss;}, or
+     * Long.MIN_VALUE if the row does not
+     */
+    private static long timestamp(char[] line, int length) {
+        if (length < 20 || line[4] != '-' || line[7] != '-' || line[10] != ';'
+                || line[13] != ':' || line[16] != ':' || line[19] != ';') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(line, 0, 4);
+        int month = digits(line, 5, 2);
+        int day = digits(line, 8, 2);
+        int hour = digits(line, 11, 2);
+        int minute = digits(line, 14, 2);
+        int second = digits(line, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || minute < 0 || second < 0) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            return LocalDate.of(year, month, day).toEpochDay() * DAY_MILLIS
+                    + ((hour * 60L + minute) * 60 + second) * 1000;
+        } catch (DateTimeException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static int digits(char[] line, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char c = line[i];
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean startsWith(char[] line, int length, String prefix) {
+        if (length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class LineReader {
+        private final InputStream in;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int position;
+        private int limit;
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads one line into the buffer, without the line terminator. Bytes are taken as
+         * chars, which is exact for the ASCII data rows.
+         *
+         * @return the line length, capped at the buffer length, or -1 at the end of the stream
+         */
+        int readLine(char[] line) throws IOException {
+            int length = 0;
+            boolean any = false;
+            while (true) {
+                if (position == limit) {
+                    limit = in.read(buffer);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        return any ? length : -1;
+                    }
+                }
+                any = true;
+                byte b = buffer[position++];
+                if (b == '\n') {
+                    return length;
+                }
+                if (b != '\r' && length < line.length) {
+                    line[length++] = (char) (b & 0xff);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package io.github.mjsaa.energy_weather_api.smhi.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.github.mjsaa.energy_weather_api.data.TimeSeries;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Streaming parser for the SMHI metobs {@code data.json} payload. Reads the {@code value}
+ * array token by token straight into primitive arrays and skips everything else, so no
+ * tree or intermediate strings are built.
+ */
+public final class SMHISeriesParser {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    private SMHISeriesParser() {
+    }
+
+    /**
+     * @throws FileNotFoundException if the payload has no value array, which is how SMHI
+     * answers for a station that has stopped reporting, so the caller can fall back
+     */
+    public static TimeSeries parse(byte[] json) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("SMHI payload is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if ("value".equals(field) && token == JsonToken.START_ARRAY) {
+                    return readValues(parser);
+                }
+                parser.skipChildren();
+            }
+            throw new FileNotFoundException("SMHI payload has no values");
+        }
+    }
+
+    private static TimeSeries readValues(JsonParser parser) throws IOException {
+        long[] timestamps = new long[32];
+        double[] values = new double[32];
+        int size = 0;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            long date = Long.MIN_VALUE;
+            double value = Double.NaN;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if ("date".equals(field)) {
+                    date = parser.getLongValue();
+                } else if ("value".equals(field)) {
+                    value = readDouble(parser, token);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (date == Long.MIN_VALUE) {
+                continue;
+            }
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            timestamps[size] = date;
+            values[size] = value;
+            size++;
+        }
+        return new TimeSeries(Arrays.copyOf(timestamps, size), Arrays.copyOf(values, size));
+    }
+
+    private static double readDouble(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getDoubleValue();
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            return parseDecimal(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * SMHI sends values as short decimal strings such as "-3.4". Those are parsed from the
+     * parser's buffer without creating a String; anything else goes through Double.parseDouble.
+     *
+     * @return the value, or NaN if it is not a number
+     */
+    static double parseDecimal(char[] chars, int offset, int length) {
+        if (length == 0) {
+            return Double.NaN;
+        }
+        int i = offset;
+        int end = offset + length;
+        boolean negative = chars[i] == '-';
+        if (negative || chars[i] == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int scale = -1;
+        int digits = 0;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                digits = -1;
+                break;
+            }
+        }
+        if (digits <= 0 || digits > 15 || scale > 15) {
+            try {
+                return Double.parseDouble(new String(chars, offset, length));
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+        // Both operands are exact doubles, so the quotient is the correctly rounded value
+        double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+        return negative ? -value : value;
+    }
+}
@@ -1,17 +1,18 @@
 package io.github.mjsaa.energy_weather_api.smhi.utils;
 
 import java.io.*;
-import java.net.URL;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.mjsaa.energy_weather_api.client.UpstreamClient;
 import io.github.mjsaa.energy_weather_api.data.Station;
 import io.github.mjsaa.energy_weather_api.data.StationResponse;
+import io.github.mjsaa.energy_weather_api.data.TimeSeries;
+import io.github.mjsaa.energy_weather_api.service.JsonCodec;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
@@ -26,6 +27,10 @@ public class SMHIService {
     // Url for the metobs API
     @Value("${smhi.opendata.api.url}")
     private String metObsAPI;
+    @Autowired
+    UpstreamClient upstreamClient;
+    @Autowired
+    JsonCodec jsonCodec;
 
 
     /**
@@ -77,12 +82,10 @@ public class SMHIService {
 
     public List<Station> getStations(String parameterKey) throws IOException, JSONException {
 
-        String stationsJsonString = readStringFromUrl(
+        byte[] stationsJson = upstreamClient.get(
                 this.metObsAPI + "/version/latest/parameter/" + parameterKey + ".json"
         );
-        ObjectMapper mapper = new ObjectMapper();
-
-        StationResponse stationResponse = mapper.readValue(stationsJsonString, new TypeReference<StationResponse>() {});
+        StationResponse stationResponse = jsonCodec.stationResponseReader().readValue(stationsJson);
         return stationResponse.stations();
     }
 
@@ -111,25 +114,28 @@ public class SMHIService {
 
 
     /**
-     * Get the data for the given parameter, station and period.
+     * Observations of one station from a {@code data.csv} period such as {@code latest-months}
+     * or {@code corrected-archive}. The payload is parsed while it streams in and only rows in
+     * [from, to) are kept, so even the full archive is never held in memory.
      *
-     * @param parameterKey The key for the wanted parameter
-     * @param stationKey The key for the wanted station
-     * @param periodName The name for the wanted period
-     * @return The data
-     * @throws IOException
-     * @throws JSONException
+     * @param from first epoch millis to keep, inclusive
+     * @param to   last epoch millis to keep, exclusive
      */
-    private String getData(String parameterKey, String stationKey, String periodName) throws IOException {
-        return readStringFromUrl(
-                metObsAPI
-                        + "/version/latest/parameter/"
-                        + parameterKey
-                        + "/station/"
-                        + stationKey
-                        + "/period/"
-                        + periodName
-                        + "/data.csv");
+    public TimeSeries getData(String parameterKey, String stationKey, String periodName, long from, long to)
+            throws IOException {
+        return upstreamClient.stream(getDataUrl(parameterKey, stationKey, periodName),
+                body -> SMHICsvParser.parse(body, from, to));
+    }
+
+    private String getDataUrl(String parameterKey, String stationKey, String periodName) {
+        return metObsAPI
+                + "/version/latest/parameter/"
+                + parameterKey
+                + "/station/"
+                + stationKey
+                + "/period/"
+                + periodName
+                + "/data.csv";
     }
 
 
@@ -140,19 +146,6 @@ public class SMHIService {
 
 
     public String readStringFromUrl(String url) throws IOException {
-
-        InputStream inputStream = new URL(url).openStream();
-        try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
-            StringBuilder stringBuilder = new StringBuilder();
-            int cp;
-            while ((cp = reader.read()) != -1) {
-                stringBuilder.append((char) cp);
-            }
-            return stringBuilder.toString();
-        }
-        finally {
-            inputStream.close();
-        }
+        return new String(upstreamClient.get(url), StandardCharsets.UTF_8);
     }
 }
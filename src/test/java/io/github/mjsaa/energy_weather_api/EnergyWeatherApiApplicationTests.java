@@ -10,11 +10,26 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import io.github.mjsaa.energy_weather_api.smhi.utils.SMHIService;
+import io.github.mjsaa.energy_weather_api.smhi.utils.SMHICsvParser;
+import io.github.mjsaa.energy_weather_api.smhi.utils.SMHISeriesParser;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -35,6 +50,8 @@ class EnergyWeatherApiApplicationTests {
 
 	@Autowired
 	CombinationService combinationService;
+	@Autowired
+	ElectricityPriceCache electricityPriceCache;
 
 	@Test
 	void testStationListLength() throws JSONException, IOException {
@@ -141,6 +158,28 @@ class EnergyWeatherApiApplicationTests {
 		}
 	}
 
+	@Test
+	void testStationIndexMatchesLinearScan() throws IOException {
+		// Given
+		try (InputStream inputStream = getClass().getResourceAsStream(
+				"/stations.json"
+		)) {
+			ObjectMapper mapper = new ObjectMapper();
+			List<Station> stations = mapper.readValue(inputStream, StationResponse.class).stations();
+			StationIndex index = StationIndex.of(stations);
+			Location location = new Location(59.31477,18.4065336);
+
+			// When
+			List<Station> nearest = geoClosestFinder.getClosest(location, index, 3);
+
+			// Then
+			assertEquals(geoClosestFinder.getClosest(location, stations), nearest.getFirst());
+			assertEquals(nearest.getFirst(), geoClosestFinder.getClosest(location, index));
+			assertEquals(3, nearest.size());
+			assertEquals(59.3165, nearest.get(1).latitude(), GEO_TOLERANCE);
+		}
+	}
+
 	@Test
 	void testGetWeatherData() throws IOException {
 		// Given
@@ -189,6 +228,41 @@ class EnergyWeatherApiApplicationTests {
 		assertEquals(expected, actual);
 	}
 
+	@Test
+	void testElectricityPriceCacheHit() throws IOException {
+		// Given
+		LocalDate day = LocalDate.of(2025, 11, 27);
+		DayPriceTable table = DayPriceTable.of(List.of(
+				new ElectricityPrice("0.60104", "2025-11-27T00:00:00+01:00", "2025-11-27T01:00:00+01:00"),
+				new ElectricityPrice("0.58", "2025-11-27T01:00:00+01:00", "2025-11-27T02:00:00+01:00")));
+		long missesBefore = electricityPriceCache.missCount();
+		long hitsBefore = electricityPriceCache.hitCount();
+		// When
+		electricityPriceCache.get(day, "4", () -> table);
+		DayPriceTable cached = electricityPriceCache.get(day, "4", () -> fail("Expected a cache hit"));
+		// Then
+		assertSame(table, cached);
+		assertEquals(missesBefore + 1, electricityPriceCache.missCount());
+		assertEquals(hitsBefore + 1, electricityPriceCache.hitCount());
+		assertEquals("0.60104", cached.priceAt(Instant.parse("2025-11-26T23:00:00Z").toEpochMilli()));
+	}
+
+	@Test
+	void testQuarterHourPriceAlignment() {
+		// Given
+		DayPriceTable table = DayPriceTable.of(List.of(
+				new ElectricityPrice("0.25", "2025-11-27T00:15:00+01:00", "2025-11-27T00:30:00+01:00"),
+				new ElectricityPrice("0.1", "2025-11-27T00:00:00+01:00", "2025-11-27T00:15:00+01:00")));
+		// When
+		String firstQuarter = table.priceAt(Instant.parse("2025-11-26T23:05:00Z").toEpochMilli());
+		String secondQuarter = table.priceAt(OffsetDateTime.parse("2025-11-27T00:15:00+01:00").toInstant().toEpochMilli());
+		String afterLastInterval = table.priceAt(Instant.parse("2025-11-26T23:30:00Z").toEpochMilli());
+		// Then
+		assertEquals("0.1", firstQuarter);
+		assertEquals("0.25", secondQuarter);
+		assertNull(afterLastInterval);
+	}
+
 	@Test
 	void testIsSunUp() {
 		Location location = new Location(59.314778, 18.406528); // Gustavsberg
@@ -199,4 +273,219 @@ class EnergyWeatherApiApplicationTests {
         assertTrue(weatherService.isSunUp(day, location));
         assertFalse(weatherService.isSunUp(night, location));
 	}
+
+	@Test
+	void testIsSunUpDuringPolarDayAndNight() {
+		Location location = new Location(68.35, 18.83); // Abisko
+		Instant midsummerMidnight = OffsetDateTime.parse("2025-06-21T00:30:00+02:00").toInstant();
+		Instant midwinterNoon = OffsetDateTime.parse("2025-12-21T12:00:00+01:00").toInstant();
+		assertTrue(weatherService.isSunUp(midsummerMidnight, location));
+		assertFalse(weatherService.isSunUp(midwinterNoon, location));
+	}
+
+	@Test
+	void testFanOutFirstFailureCancelsSiblings() throws InterruptedException {
+		// Given
+		CountDownLatch siblingCancelled = new CountDownLatch(1);
+		IOException upstreamFailure = new IOException("Upstream failed");
+		try (FanOut fanOut = new FanOut()) {
+			FanOut.Fork<String> slow = fanOut.fork(() -> {
+				try {
+					Thread.sleep(60_000);
+					return "too late";
+				} catch (InterruptedException e) {
+					siblingCancelled.countDown();
+					throw e;
+				}
+			});
+			FanOut.Fork<String> failing = fanOut.fork(() -> {
+				throw upstreamFailure;
+			});
+			// When
+			IOException joinedSlow = assertThrows(IOException.class, slow::join);
+			IOException joinedFailing = assertThrows(IOException.class, failing::join);
+			// Then
+			assertSame(upstreamFailure, joinedSlow);
+			assertSame(upstreamFailure, joinedFailing);
+			assertTrue(siblingCancelled.await(5, TimeUnit.SECONDS), "The sibling should have been interrupted");
+		}
+	}
+
+	@Test
+	void testSeriesParserReadsValuesAndMarksGarbageAsNaN() throws IOException {
+		// Given
+		byte[] json = """
+				{"updated": 1, "value": [
+				  {"date": 1000, "value": "-3.4", "quality": "G"},
+				  {"date": 2000, "value": "-"},
+				  {"date": 3000, "value": "1.2E-4"},
+				  {"date": 4000, "value": null},
+				  {"value": "5.0"}
+				]}""".getBytes(StandardCharsets.UTF_8);
+		// When
+		TimeSeries series = SMHISeriesParser.parse(json);
+		// Then
+		assertArrayEquals(new long[]{1000, 2000, 3000, 4000}, series.timestamps());
+		assertEquals(-3.4, series.values()[0]);
+		assertTrue(Double.isNaN(series.values()[1]));
+		assertEquals(1.2E-4, series.values()[2]);
+		assertTrue(Double.isNaN(series.values()[3]));
+	}
+
+	@Test
+	void testSeriesParserTreatsMissingValuesAsNoData() {
+		// Given
+		byte[] nullValues = "{\"updated\": 1, \"value\": null}".getBytes(StandardCharsets.UTF_8);
+		byte[] noValues = "{\"updated\": 1}".getBytes(StandardCharsets.UTF_8);
+		// Then
+		assertThrows(FileNotFoundException.class, () -> SMHISeriesParser.parse(nullValues));
+		assertThrows(FileNotFoundException.class, () -> SMHISeriesParser.parse(noValues));
+	}
+
+	@Test
+	void testWeatherColumnsJoinUnsortedSeriesOnOneAxis() {
+		// Given
+		TimeSeries temperature = new TimeSeries(new long[]{3000, 1000, 2000}, new double[]{3, 1, 2});
+		TimeSeries windSpeed = new TimeSeries(new long[]{2000, 4000}, new double[]{20, 40});
+		TimeSeries cloudiness = new TimeSeries(new long[0], new double[0]);
+		// When
+		WeatherColumns columns = WeatherColumns.join(temperature, windSpeed, cloudiness);
+		// Then
+		assertArrayEquals(new long[]{1000, 2000, 3000, 4000}, columns.timestamps());
+		assertArrayEquals(new double[]{1, 2, 3, Double.NaN}, columns.temperature());
+		assertArrayEquals(new double[]{Double.NaN, 20, Double.NaN, 40}, columns.windSpeed());
+		assertArrayEquals(new double[]{Double.NaN, Double.NaN, Double.NaN, Double.NaN}, columns.cloudiness());
+	}
+
+	@Test
+	void testWeatherColumnsJoinKeepsFirstValueOfRepeatedTimestamp() {
+		// Given
+		TimeSeries sortedRepeat = new TimeSeries(new long[]{1000, 1000, 2000}, new double[]{1, 9, 2});
+		TimeSeries unsortedRepeat = new TimeSeries(new long[]{2000, 1000, 2000}, new double[]{20, 10, 99});
+		TimeSeries cloudiness = new TimeSeries(new long[]{1000}, new double[]{5});
+		// When
+		WeatherColumns columns = WeatherColumns.join(sortedRepeat, unsortedRepeat, cloudiness);
+		// Then
+		assertArrayEquals(new long[]{1000, 2000}, columns.timestamps());
+		assertArrayEquals(new double[]{1, 2}, columns.temperature());
+		assertArrayEquals(new double[]{10, 20}, columns.windSpeed());
+		assertArrayEquals(new double[]{5, Double.NaN}, columns.cloudiness());
+	}
+
+	@Test
+	void testSingleFlightSharesOneLoad() throws Exception {
+		// Given
+		SingleFlight<String, String> flight = new SingleFlight<>();
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger loads = new AtomicInteger();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			Future<String> leader = executor.submit(() -> flight.execute("key", () -> {
+				loads.incrementAndGet();
+				awaitQuietly(release);
+				return "value";
+			}));
+			awaitLoads(loads, 1);
+			Future<String> follower = executor.submit(() -> flight.execute("key", () -> {
+				loads.incrementAndGet();
+				return "own value";
+			}));
+			awaitShared(flight, 1);
+			// When
+			release.countDown();
+			// Then
+			assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+			assertEquals("value", follower.get(5, TimeUnit.SECONDS));
+			assertEquals(1, loads.get(), "Only the leader should load");
+		}
+	}
+
+	@Test
+	void testSingleFlightRetriesAfterInterruptedLeader() throws Exception {
+		// Given
+		SingleFlight<String, String> flight = new SingleFlight<>();
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger loads = new AtomicInteger();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			Future<String> leader = executor.submit(() -> flight.execute("key", () -> {
+				loads.incrementAndGet();
+				awaitQuietly(release);
+				throw new InterruptedIOException("Cancelled by its own request");
+			}));
+			awaitLoads(loads, 1);
+			Future<String> follower = executor.submit(() -> flight.execute("key", () -> {
+				loads.incrementAndGet();
+				return "own value";
+			}));
+			awaitShared(flight, 1);
+			// When
+			release.countDown();
+			// Then
+			ExecutionException leaderFailure = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+			assertTrue(leaderFailure.getCause() instanceof InterruptedIOException);
+			assertEquals("own value", follower.get(5, TimeUnit.SECONDS));
+			assertEquals(2, loads.get(), "The follower should have loaded on its own");
+		}
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void awaitLoads(AtomicInteger loads, int expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (loads.get() < expected && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+	}
+
+	private static void awaitShared(SingleFlight<?, ?> flight, long expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (flight.sharedCount() < expected && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+	}
+
+	@Test
+	void testCsvParserKeepsRowsInRange() throws IOException {
+		// Given
+		String csv = """
+				Stationsnamn;Stationsnummer;Stationsnät;Mäthöjd (meter över marken)
+				Stockholm-Observatoriekullen A;98230;SMHIs stationsnät;2.0
+
+				Datum;Tid (UTC);Lufttemperatur;Kvalitet;;Tidsutsnitt:
+				2024-01-31;05:00:00;-4.0;G;;Kvalitetskontrollerade historiska data
+				2024-01-31;06:00:00;-3.4;G;;
+				2024-01-31;07:00
+				2024-01-31;08:00:00;;G;;
+				2024-01-31;09:00:00;-2.5;G;;
+				2024-01-31;10:00:00;-2.0;G""";
+		long from = Instant.parse("2024-01-31T06:00:00Z").toEpochMilli();
+		long to = Instant.parse("2024-01-31T10:00:00Z").toEpochMilli();
+		// When
+		TimeSeries series = SMHICsvParser.parse(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), from, to);
+		// Then
+		assertArrayEquals(new long[]{
+				from,
+				Instant.parse("2024-01-31T08:00:00Z").toEpochMilli(),
+				Instant.parse("2024-01-31T09:00:00Z").toEpochMilli()
+		}, series.timestamps());
+		assertEquals(-3.4, series.values()[0]);
+		assertTrue(Double.isNaN(series.values()[1]));
+		assertEquals(-2.5, series.values()[2]);
+	}
+
+	@Test
+	void testCsvParserSkipsMetadataWithoutHeader() throws IOException {
+		// Given
+		String csv = "Stationsnamn;Stationsnummer\n2024-01-31;06:00:00;-3.4;G\n";
+		// When
+		TimeSeries series = SMHICsvParser.parse(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)),
+				Long.MIN_VALUE, Long.MAX_VALUE);
+		// Then
+		assertEquals(0, series.size());
+	}
 }